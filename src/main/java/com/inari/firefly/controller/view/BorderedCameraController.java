@@ -6,6 +6,7 @@ import java.util.Set;
 import com.inari.commons.geom.Direction;
 import com.inari.commons.geom.PositionF;
 import com.inari.commons.geom.Rectangle;
+import com.inari.firefly.FFInitException;
 import com.inari.firefly.component.attr.AttributeKey;
 import com.inari.firefly.component.attr.AttributeMap;
 import com.inari.firefly.graphics.view.View;
@@ -49,11 +50,21 @@ public final class BorderedCameraController extends ViewController {
     private final Rectangle virtualViewBounds = new Rectangle();
     
     private final ViewChangeEvent viewChangeEvent = new ViewChangeEvent( null, Type.ORIENTATION );
+    private ViewDetailTiers detailTiers;
+    private VisibleSetIndex visibleSetIndex;
 
     protected BorderedCameraController( int id ) {
         super( id );
     }
 
+    @Override
+    public final void init() throws FFInitException {
+        super.init();
+        
+        detailTiers = context.getSystem( ViewDetailTiers.SYSTEM_KEY );
+        visibleSetIndex = context.getSystem( VisibleSetIndex.SYSTEM_KEY );
+    }
+
     public final CameraPivot getPivot() {
         return pivot;
     }
@@ -226,6 +237,15 @@ public final class BorderedCameraController extends ViewController {
             viewChangeEvent.setView( view );
             context.notify( viewChangeEvent );
         }
+        
+        publishViewArea( view, worldPosition, viewBounds, zoom );
+    }
+    
+    private void publishViewArea( View view, PositionF worldPosition, Rectangle viewBounds, float zoom ) {
+        final float width = viewBounds.width * zoom;
+        final float height = viewBounds.height * zoom;
+        detailTiers.setViewArea( view.getId(), worldPosition.x, worldPosition.y, width, height );
+        visibleSetIndex.setViewArea( view.getId(), worldPosition.x, worldPosition.y, width, height );
     }
     
     private final void updateMoveDirection( Rectangle viewBounds, PositionF following ) {
@@ -0,0 +1,65 @@
+package com.inari.firefly.controller.view;
+
+/** The difference of two rectangles of cells as rectangular strips */
+final class CellStrips {
+
+    /** The maximal number of strips of a difference */
+    static final int MAX_STRIPS = 4;
+
+    private CellStrips() {}
+
+    /** The first cell of an area that starts at the world position */
+    static int firstCell( float position, int cellSize ) {
+        return floorDiv( (int) Math.floor( position ), cellSize );
+    }
+
+    /** The last cell of an area of the given size that starts at the world position */
+    static int lastCell( float position, float size, int cellSize ) {
+        return floorDiv( (int) Math.ceil( position + size ) - 1, cellSize );
+    }
+
+    /** Writes the cells of rectangle a that are not in rectangle b as up to four strips into strips, each as the
+     *  inclusive cell coordinates x1, y1, x2, y2. The strips do not overlap.
+     *  @return the number of strips
+     */
+    static int difference( int ax1, int ay1, int ax2, int ay2, int bx1, int by1, int bx2, int by2, int[] strips ) {
+        if ( bx1 > ax2 || bx2 < ax1 || by1 > ay2 || by2 < ay1 ) {
+            return put( strips, 0, ax1, ay1, ax2, ay2 );
+        }
+
+        int count = 0;
+        // full height strips left and right of b
+        if ( ax1 < bx1 ) {
+            count = put( strips, count, ax1, ay1, bx1 - 1, ay2 );
+        }
+        if ( ax2 > bx2 ) {
+            count = put( strips, count, bx2 + 1, ay1, ax2, ay2 );
+        }
+
+        // strips above and below b within the columns of both
+        final int x1 = Math.max( ax1, bx1 );
+        final int x2 = Math.min( ax2, bx2 );
+        if ( ay1 < by1 ) {
+            count = put( strips, count, x1, ay1, x2, by1 - 1 );
+        }
+        if ( ay2 > by2 ) {
+            count = put( strips, count, x1, by2 + 1, x2, ay2 );
+        }
+        return count;
+    }
+
+    private static int floorDiv( int value, int divisor ) {
+        final int result = value / divisor;
+        return ( value < 0 && result * divisor != value )? result - 1 : result;
+    }
+
+    private static int put( int[] strips, int index, int x1, int y1, int x2, int y2 ) {
+        final int offset = index << 2;
+        strips[ offset ] = x1;
+        strips[ offset + 1 ] = y1;
+        strips[ offset + 2 ] = x2;
+        strips[ offset + 3 ] = y2;
+        return index + 1;
+    }
+
+}
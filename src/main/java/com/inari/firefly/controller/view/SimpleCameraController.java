@@ -5,6 +5,7 @@ import java.util.Set;
 
 import com.inari.commons.geom.PositionF;
 import com.inari.commons.geom.Rectangle;
+import com.inari.firefly.FFInitException;
 import com.inari.firefly.component.attr.AttributeKey;
 import com.inari.firefly.component.attr.AttributeMap;
 import com.inari.firefly.graphics.view.View;
@@ -27,11 +28,21 @@ public final class SimpleCameraController extends ViewController {
     //private final Rectangle virtualViewBounds = new Rectangle();
     
     private final ViewChangeEvent viewChangeEvent = new ViewChangeEvent( null, Type.ORIENTATION );
+    private ViewDetailTiers detailTiers;
+    private VisibleSetIndex visibleSetIndex;
 
     protected SimpleCameraController( int id ) {
         super( id );
     }
 
+    @Override
+    public final void init() throws FFInitException {
+        super.init();
+        
+        detailTiers = context.getSystem( ViewDetailTiers.SYSTEM_KEY );
+        visibleSetIndex = context.getSystem( VisibleSetIndex.SYSTEM_KEY );
+    }
+
     public final CameraPivot getPivot() {
         return pivot;
     }
@@ -126,6 +137,15 @@ public final class SimpleCameraController extends ViewController {
             viewChangeEvent.setView( view );
             context.notify( viewChangeEvent );
         }
+        
+        publishViewArea( view, worldPosition, viewBounds, zoom );
+    }
+    
+    private void publishViewArea( View view, PositionF worldPosition, Rectangle viewBounds, float zoom ) {
+        final float width = viewBounds.width * zoom;
+        final float height = viewBounds.height * zoom;
+        detailTiers.setViewArea( view.getId(), worldPosition.x, worldPosition.y, width, height );
+        visibleSetIndex.setViewArea( view.getId(), worldPosition.x, worldPosition.y, width, height );
     }
 
 }
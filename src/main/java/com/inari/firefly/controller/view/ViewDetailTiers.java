@@ -0,0 +1,306 @@
+package com.inari.firefly.controller.view;
+
+import java.util.Arrays;
+
+import com.inari.commons.lang.aspect.Aspects;
+import com.inari.firefly.entity.EntityActivationEvent;
+import com.inari.firefly.entity.EntityActivationListener;
+import com.inari.firefly.entity.EntitySystem;
+import com.inari.firefly.graphics.ETransform;
+import com.inari.firefly.graphics.view.ViewEvent;
+import com.inari.firefly.graphics.view.ViewEventListener;
+import com.inari.firefly.system.FFContext;
+import com.inari.firefly.system.FFSystem;
+
+/** Simulation level of detail by the distance of an entity to the visible area of its view. The camera controllers
+ *  publish the visible world area of their view on each update. Around it there are three tiers:
+ *  <ul>
+ *  <li>FULL: within the visible area, updated every frame</li>
+ *  <li>REDUCED: within the margin band around the visible area, updated every reducedRate frames</li>
+ *  <li>FAR: beyond the margin band, updated every farRate frames, or frozen if farRate is 0</li>
+ *  </ul>
+ *  The frames an entity is due are staggered by the entity id, so the updates are spread over the frames. An update
+ *  of a due entity is one ordinary update, the frames in between are not caught up. Entities in the REDUCED tier keep
+ *  their velocity in between, so they move on at the same speed but change it less often.
+ *  Entities of views without a published area are always in the FULL tier. The area of a view that is disposed or
+ *  deleted is removed.
+ *
+ *  The entities are bucketed by the cells of the VisibleSetIndex: the FULL tier are the visible cells of the index and
+ *  the REDUCED tier the cells within the margin band. The cell of an entity is located with one ETransform lookup on
+ *  its first decision and then kept up to date by the platformer controllers and the PFCollisionResolver, which have
+ *  the ETransform at hand anyway. An entity that is moved by other code keeps its cell until it is located again.
+ *  The cell of a deactivated entity is forgotten.
+ *
+ *  The decision is made once per entity and frame and shared by all controllers that ask for it. This is a few array
+ *  reads per entity and frame without component lookups, so the cost still grows with the total number of entities
+ *  but only by a small factor. What the tiers save is the work of the controllers and the collision resolving for the
+ *  entities that are not due or frozen.
+ *
+ *  This is a system of the context. The tiers are disabled as long as the margin is negative or the VisibleSetIndex
+ *  has no cell size.
+ */
+public final class ViewDetailTiers implements FFSystem, ViewEventListener, EntityActivationListener {
+
+    public static final FFSystemTypeKey<ViewDetailTiers> SYSTEM_KEY = FFSystemTypeKey.create( ViewDetailTiers.class );
+
+    public static final int FULL = 0;
+    public static final int REDUCED = 1;
+    public static final int FAR = 2;
+
+    private int margin = -1;
+    private int reducedRate = 4;
+    private int farRate = 0;
+
+    private boolean[] published = new boolean[ 0 ];
+    private float[] viewX1 = new float[ 0 ];
+    private float[] viewY1 = new float[ 0 ];
+    private float[] viewX2 = new float[ 0 ];
+    private float[] viewY2 = new float[ 0 ];
+    /** the cells of the visible area and the margin band */
+    private int[] reducedX1 = new int[ 0 ];
+    private int[] reducedY1 = new int[ 0 ];
+    private int[] reducedX2 = new int[ 0 ];
+    private int[] reducedY2 = new int[ 0 ];
+
+    private EntitySystem entitySystem;
+    private VisibleSetIndex visibleSetIndex;
+    private long frameTime = -1;
+    private int frame = 0;
+    /** the frame of the last decision per entity, its result and whether the entity was frozen before */
+    private int[] decidedFrame = new int[ 0 ];
+    private byte[] decision = new byte[ 0 ];
+    private boolean[] newlyFrozen = new boolean[ 0 ];
+    /** the view and the cell of each located entity */
+    private boolean[] located = new boolean[ 0 ];
+    private int[] entityView = new int[ 0 ];
+    private int[] entityCellX = new int[ 0 ];
+    private int[] entityCellY = new int[ 0 ];
+
+    ViewDetailTiers() {}
+
+    @Override
+    public final void init( FFContext context ) {
+        entitySystem = context.getSystem( EntitySystem.SYSTEM_KEY );
+        visibleSetIndex = context.getSystem( VisibleSetIndex.SYSTEM_KEY );
+        context.registerListener( ViewEvent.TYPE_KEY, this );
+        context.registerListener( EntityActivationEvent.TYPE_KEY, this );
+    }
+
+    @Override
+    public final FFSystemTypeKey<ViewDetailTiers> systemTypeKey() {
+        return SYSTEM_KEY;
+    }
+
+    @Override
+    public final void dispose( FFContext context ) {
+        context.disposeListener( ViewEvent.TYPE_KEY, this );
+        context.disposeListener( EntityActivationEvent.TYPE_KEY, this );
+        margin = -1;
+        published = new boolean[ 0 ];
+        decidedFrame = new int[ 0 ];
+        decision = new byte[ 0 ];
+        newlyFrozen = new boolean[ 0 ];
+        located = new boolean[ 0 ];
+        entityView = new int[ 0 ];
+        entityCellX = new int[ 0 ];
+        entityCellY = new int[ 0 ];
+    }
+
+    public final int getMargin() {
+        return margin;
+    }
+
+    /** The width in pixel of the band around the visible area of the REDUCED tier. A negative value disables the tiers */
+    public final void setMargin( int margin ) {
+        this.margin = margin;
+    }
+
+    public final int getReducedRate() {
+        return reducedRate;
+    }
+
+    public final void setReducedRate( int reducedRate ) {
+        this.reducedRate = Math.max( 1, reducedRate );
+    }
+
+    public final int getFarRate() {
+        return farRate;
+    }
+
+    /** The update rate in frames of the FAR tier, 0 to freeze the entities beyond the margin band */
+    public final void setFarRate( int farRate ) {
+        this.farRate = Math.max( 0, farRate );
+    }
+
+    public final boolean isEnabled() {
+        return margin >= 0 && visibleSetIndex != null && visibleSetIndex.isEnabled();
+    }
+
+    /** Publishes the visible world area of a view. Called by the camera controllers */
+    public final void setViewArea( int viewId, float x, float y, float width, float height ) {
+        if ( viewId >= published.length ) {
+            final int capacity = viewId + 1;
+            published = Arrays.copyOf( published, capacity );
+            viewX1 = Arrays.copyOf( viewX1, capacity );
+            viewY1 = Arrays.copyOf( viewY1, capacity );
+            viewX2 = Arrays.copyOf( viewX2, capacity );
+            viewY2 = Arrays.copyOf( viewY2, capacity );
+            reducedX1 = Arrays.copyOf( reducedX1, capacity );
+            reducedY1 = Arrays.copyOf( reducedY1, capacity );
+            reducedX2 = Arrays.copyOf( reducedX2, capacity );
+            reducedY2 = Arrays.copyOf( reducedY2, capacity );
+        }
+
+        published[ viewId ] = true;
+        viewX1[ viewId ] = x;
+        viewY1[ viewId ] = y;
+        viewX2[ viewId ] = x + width;
+        viewY2[ viewId ] = y + height;
+        if ( isEnabled() ) {
+            final int cellWidth = visibleSetIndex.getCellWidth();
+            final int cellHeight = visibleSetIndex.getCellHeight();
+            reducedX1[ viewId ] = CellStrips.firstCell( x - margin, cellWidth );
+            reducedY1[ viewId ] = CellStrips.firstCell( y - margin, cellHeight );
+            reducedX2[ viewId ] = CellStrips.lastCell( x - margin, width + 2 * margin, cellWidth );
+            reducedY2[ viewId ] = CellStrips.lastCell( y - margin, height + 2 * margin, cellHeight );
+        }
+    }
+
+    @Override
+    public final void onViewEvent( ViewEvent viewEvent ) {
+        if ( viewEvent.eventType == ViewEvent.Type.VIEW_DISPOSED || viewEvent.eventType == ViewEvent.Type.VIEW_DELETED ) {
+            clearViewArea( viewEvent.view.getId() );
+        }
+    }
+
+    public final void clearViewArea( int viewId ) {
+        if ( viewId < published.length ) {
+            published[ viewId ] = false;
+        }
+    }
+
+    @Override
+    public final boolean match( Aspects aspects ) {
+        return true;
+    }
+
+    @Override
+    public final void entityActivated( int entityId, Aspects aspects ) {
+        // located on its first decision
+    }
+
+    @Override
+    public final void entityDeactivated( int entityId, Aspects aspects ) {
+        if ( entityId < located.length ) {
+            located[ entityId ] = false;
+            decidedFrame[ entityId ] = 0;
+            newlyFrozen[ entityId ] = false;
+        }
+    }
+
+    /** Updates the cell of the entity from its ETransform. Called by the controllers that move the entity */
+    public final void locate( int entityId, ETransform transform ) {
+        if ( !isEnabled() ) {
+            return;
+        }
+        if ( entityId >= located.length ) {
+            ensureCapacity( entityId );
+        }
+
+        located[ entityId ] = true;
+        entityView[ entityId ] = transform.getViewId();
+        entityCellX[ entityId ] = CellStrips.firstCell( transform.getXpos(), visibleSetIndex.getCellWidth() );
+        entityCellY[ entityId ] = CellStrips.firstCell( transform.getYpos(), visibleSetIndex.getCellHeight() );
+    }
+
+    public final int getTier( int viewId, float x, float y ) {
+        if ( margin < 0 || viewId < 0 || viewId >= published.length || !published[ viewId ] ) {
+            return FULL;
+        }
+
+        if ( x >= viewX1[ viewId ] && x < viewX2[ viewId ] && y >= viewY1[ viewId ] && y < viewY2[ viewId ] ) {
+            return FULL;
+        }
+        if ( x >= viewX1[ viewId ] - margin && x < viewX2[ viewId ] + margin && y >= viewY1[ viewId ] - margin && y < viewY2[ viewId ] + margin ) {
+            return REDUCED;
+        }
+        return FAR;
+    }
+
+    /** The tier of a cell of the VisibleSetIndex */
+    public final int getCellTier( int viewId, int cellX, int cellY ) {
+        if ( !isEnabled() || viewId < 0 || viewId >= published.length || !published[ viewId ] ) {
+            return FULL;
+        }
+
+        if ( visibleSetIndex.isVisible( viewId, cellX, cellY ) ) {
+            return FULL;
+        }
+        if ( cellX >= reducedX1[ viewId ] && cellX <= reducedX2[ viewId ] && cellY >= reducedY1[ viewId ] && cellY <= reducedY2[ viewId ] ) {
+            return REDUCED;
+        }
+        return FAR;
+    }
+
+    /** The update rate in frames of the given tier, 0 for frozen */
+    public final int getRate( int tier ) {
+        switch ( tier ) {
+            case REDUCED: return reducedRate;
+            case FAR: return farRate;
+            default: return 1;
+        }
+    }
+
+    /** Tells whether the entity is due within the frame of the given time: 1 if it is in the FULL tier or due, 0 if
+     *  it is not due and -1 if it is frozen. Always 1 if the tiers are disabled
+     */
+    public final int frames( int entityId, long time ) {
+        if ( !isEnabled() ) {
+            return 1;
+        }
+
+        if ( time != frameTime ) {
+            frameTime = time;
+            frame++;
+        }
+        if ( entityId >= decidedFrame.length ) {
+            ensureCapacity( entityId );
+        }
+        if ( decidedFrame[ entityId ] == frame ) {
+            return decision[ entityId ];
+        }
+
+        if ( !located[ entityId ] ) {
+            locate( entityId, entitySystem.getComponent( entityId, ETransform.TYPE_KEY ) );
+        }
+        final int rate = getRate( getCellTier( entityView[ entityId ], entityCellX[ entityId ], entityCellY[ entityId ] ) );
+        final int frames;
+        if ( rate == 0 ) {
+            frames = -1;
+        } else {
+            frames = ( ( frame + entityId ) % rate == 0 )? 1 : 0;
+        }
+
+        newlyFrozen[ entityId ] = frames < 0 && ( decidedFrame[ entityId ] != frame - 1 || decision[ entityId ] >= 0 );
+        decidedFrame[ entityId ] = frame;
+        decision[ entityId ] = (byte) frames;
+        return frames;
+    }
+
+    /** Returns true if the entity was frozen by the decision of the current frame and was not frozen before */
+    public final boolean isNewlyFrozen( int entityId ) {
+        return entityId < newlyFrozen.length && decidedFrame[ entityId ] == frame && newlyFrozen[ entityId ];
+    }
+
+    private void ensureCapacity( int entityId ) {
+        final int capacity = Math.max( entityId + 1, decidedFrame.length * 2 );
+        decidedFrame = Arrays.copyOf( decidedFrame, capacity );
+        decision = Arrays.copyOf( decision, capacity );
+        newlyFrozen = Arrays.copyOf( newlyFrozen, capacity );
+        located = Arrays.copyOf( located, capacity );
+        entityView = Arrays.copyOf( entityView, capacity );
+        entityCellX = Arrays.copyOf( entityCellX, capacity );
+        entityCellY = Arrays.copyOf( entityCellY, capacity );
+    }
+
+}
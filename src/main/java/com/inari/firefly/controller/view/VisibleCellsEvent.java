@@ -0,0 +1,57 @@
+package com.inari.firefly.controller.view;
+
+import com.inari.firefly.system.FFEvent;
+
+/** A rectangular strip of cells that entered or exited the visible area of a view, notified by the VisibleSetIndex.
+ *  The event instance is reused, so a listener must not keep it
+ */
+public final class VisibleCellsEvent extends FFEvent<VisibleCellsEventListener> {
+
+    public enum Type {
+        CELLS_ENTERED,
+        CELLS_EXITED
+    }
+
+    public static final EventTypeKey TYPE_KEY = createTypeKey( VisibleCellsEvent.class );
+
+    Type eventType;
+    int viewId;
+    int cellX;
+    int cellY;
+    int width;
+    int height;
+
+    VisibleCellsEvent() {
+        super( TYPE_KEY );
+    }
+
+    public final Type getEventType() {
+        return eventType;
+    }
+
+    public final int getViewId() {
+        return viewId;
+    }
+
+    public final int getCellX() {
+        return cellX;
+    }
+
+    public final int getCellY() {
+        return cellY;
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    @Override
+    protected final void notify( VisibleCellsEventListener listener ) {
+        listener.onVisibleCellsEvent( this );
+    }
+
+}
@@ -0,0 +1,7 @@
+package com.inari.firefly.controller.view;
+
+public interface VisibleCellsEventListener {
+
+    void onVisibleCellsEvent( VisibleCellsEvent event );
+
+}
@@ -0,0 +1,164 @@
+package com.inari.firefly.controller.view;
+
+import java.util.Arrays;
+
+import com.inari.firefly.graphics.view.ViewEvent;
+import com.inari.firefly.graphics.view.ViewEventListener;
+import com.inari.firefly.system.FFContext;
+import com.inari.firefly.system.FFSystem;
+
+/** Keeps the set of visible cells of a grid, for example tiles or entity cells, for each view incrementally.
+ *  The camera controllers publish the visible world area of their view on each update. If the visible cells
+ *  changed, only the strips of cells that entered and exited the visible area are notified as VisibleCellsEvent,
+ *  so renderers and culling code can update their state by the edge instead of the whole screen. The visible
+ *  cells of a view that is disposed or deleted are notified as exited.
+ *
+ *  This is a system of the context. The index is disabled as long as no cell size is set.
+ */
+public final class VisibleSetIndex implements FFSystem, ViewEventListener {
+
+    public static final FFSystemTypeKey<VisibleSetIndex> SYSTEM_KEY = FFSystemTypeKey.create( VisibleSetIndex.class );
+
+    private FFContext context;
+    private final VisibleCellsEvent event = new VisibleCellsEvent();
+    private final int[] strips = new int[ CellStrips.MAX_STRIPS << 2 ];
+    private int cellWidth = 0;
+    private int cellHeight = 0;
+
+    private boolean[] published = new boolean[ 0 ];
+    private int[] cellX1 = new int[ 0 ];
+    private int[] cellY1 = new int[ 0 ];
+    private int[] cellX2 = new int[ 0 ];
+    private int[] cellY2 = new int[ 0 ];
+
+    VisibleSetIndex() {}
+
+    @Override
+    public final void init( FFContext context ) {
+        this.context = context;
+        context.registerListener( ViewEvent.TYPE_KEY, this );
+    }
+
+    @Override
+    public final FFSystemTypeKey<VisibleSetIndex> systemTypeKey() {
+        return SYSTEM_KEY;
+    }
+
+    @Override
+    public final void dispose( FFContext context ) {
+        context.disposeListener( ViewEvent.TYPE_KEY, this );
+        cellWidth = 0;
+        cellHeight = 0;
+        published = new boolean[ 0 ];
+    }
+
+    public final int getCellWidth() {
+        return cellWidth;
+    }
+
+    public final int getCellHeight() {
+        return cellHeight;
+    }
+
+    /** Sets the cell size in pixel. All views are reported as exited for the old cells and entered for the new cells
+     *  on their next publication
+     */
+    public final void setCellSize( int cellWidth, int cellHeight ) {
+        for ( int viewId = 0; viewId < published.length; viewId++ ) {
+            clearViewArea( viewId );
+        }
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+    }
+
+    public final boolean isEnabled() {
+        return cellWidth > 0 && cellHeight > 0;
+    }
+
+    @Override
+    public final void onViewEvent( ViewEvent viewEvent ) {
+        if ( viewEvent.eventType == ViewEvent.Type.VIEW_DISPOSED || viewEvent.eventType == ViewEvent.Type.VIEW_DELETED ) {
+            clearViewArea( viewEvent.view.getId() );
+        }
+    }
+
+    public final boolean isVisible( int viewId, int cellX, int cellY ) {
+        return viewId >= 0 && viewId < published.length && published[ viewId ]
+            && cellX >= cellX1[ viewId ] && cellX <= cellX2[ viewId ] && cellY >= cellY1[ viewId ] && cellY <= cellY2[ viewId ];
+    }
+
+    /** Publishes the visible world area of a view. Called by the camera controllers */
+    public final void setViewArea( int viewId, float x, float y, float width, float height ) {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        final int x1 = CellStrips.firstCell( x, cellWidth );
+        final int y1 = CellStrips.firstCell( y, cellHeight );
+        final int x2 = CellStrips.lastCell( x, width, cellWidth );
+        final int y2 = CellStrips.lastCell( y, height, cellHeight );
+
+        if ( viewId >= published.length ) {
+            final int capacity = viewId + 1;
+            published = Arrays.copyOf( published, capacity );
+            cellX1 = Arrays.copyOf( cellX1, capacity );
+            cellY1 = Arrays.copyOf( cellY1, capacity );
+            cellX2 = Arrays.copyOf( cellX2, capacity );
+            cellY2 = Arrays.copyOf( cellY2, capacity );
+        }
+
+        if ( !published[ viewId ] ) {
+            set( viewId, x1, y1, x2, y2 );
+            published[ viewId ] = true;
+            notifyCells( VisibleCellsEvent.Type.CELLS_ENTERED, viewId, x1, y1, x2, y2 );
+            return;
+        }
+
+        final int oldX1 = cellX1[ viewId ];
+        final int oldY1 = cellY1[ viewId ];
+        final int oldX2 = cellX2[ viewId ];
+        final int oldY2 = cellY2[ viewId ];
+        if ( x1 == oldX1 && y1 == oldY1 && x2 == oldX2 && y2 == oldY2 ) {
+            return;
+        }
+
+        set( viewId, x1, y1, x2, y2 );
+        notifyStrips( VisibleCellsEvent.Type.CELLS_EXITED, viewId, CellStrips.difference( oldX1, oldY1, oldX2, oldY2, x1, y1, x2, y2, strips ) );
+        notifyStrips( VisibleCellsEvent.Type.CELLS_ENTERED, viewId, CellStrips.difference( x1, y1, x2, y2, oldX1, oldY1, oldX2, oldY2, strips ) );
+    }
+
+    /** Removes the visible area of a view. All its visible cells are reported as exited */
+    public final void clearViewArea( int viewId ) {
+        if ( viewId >= published.length || !published[ viewId ] ) {
+            return;
+        }
+
+        published[ viewId ] = false;
+        notifyCells( VisibleCellsEvent.Type.CELLS_EXITED, viewId, cellX1[ viewId ], cellY1[ viewId ], cellX2[ viewId ], cellY2[ viewId ] );
+    }
+
+    private void set( int viewId, int x1, int y1, int x2, int y2 ) {
+        cellX1[ viewId ] = x1;
+        cellY1[ viewId ] = y1;
+        cellX2[ viewId ] = x2;
+        cellY2[ viewId ] = y2;
+    }
+
+    private void notifyStrips( VisibleCellsEvent.Type type, int viewId, int count ) {
+        for ( int i = 0; i < count; i++ ) {
+            final int offset = i << 2;
+            notifyCells( type, viewId, strips[ offset ], strips[ offset + 1 ], strips[ offset + 2 ], strips[ offset + 3 ] );
+        }
+    }
+
+    private void notifyCells( VisibleCellsEvent.Type type, int viewId, int x1, int y1, int x2, int y2 ) {
+        event.eventType = type;
+        event.viewId = viewId;
+        event.cellX = x1;
+        event.cellY = y1;
+        event.width = x2 - x1 + 1;
+        event.height = y2 - y1 + 1;
+        context.notify( event );
+    }
+
+}
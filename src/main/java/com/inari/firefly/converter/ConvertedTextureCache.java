@@ -0,0 +1,250 @@
+package com.inari.firefly.converter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.inari.commons.lang.functional.IntFunction;
+
+/** Caches color converted texture data keyed by texture id and converter identity so that every color variant
+ *  of a texture is converted only once. An entry holds the converted pixels, the id of the uploaded converted
+ *  texture, or both. If the used memory exceeds the memory budget, the least recently used entries are evicted
+ *  and reported to the EvictionListener, that can dispose uploaded textures.
+ *  Entries of an IntColorConverter or IntColorConverterChain that was updated since the entry was made are stale:
+ *  they are removed and reported to the EvictionListener on the next lookup, and count as a miss.
+ */
+public final class ConvertedTextureCache {
+
+    public interface EvictionListener {
+        /** Called for each evicted entry. pixels is null if no pixels were cached and
+         *  convertedTextureId is -1 if no converted texture was uploaded
+         */
+        void evicted( int textureId, IntFunction converter, int[] pixels, int convertedTextureId );
+    }
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>( 64, 0.75f, true );
+    private final Key lookupKey = new Key( -1, null );
+
+    private long memoryBudget;
+    private long usedMemory = 0;
+    private EvictionListener evictionListener;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /** @param memoryBudget the maximal number of bytes of cached pixels and uploaded textures */
+    public ConvertedTextureCache( long memoryBudget ) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public final long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public final void setMemoryBudget( long memoryBudget ) {
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
+    public final EvictionListener getEvictionListener() {
+        return evictionListener;
+    }
+
+    public final void setEvictionListener( EvictionListener evictionListener ) {
+        this.evictionListener = evictionListener;
+    }
+
+    /** Returns the cached converted pixels or converts the source pixels and caches the result */
+    public final int[] getPixels( int textureId, int[] sourcePixels, IntFunction converter ) {
+        Entry entry = lookup( textureId, converter );
+        if ( entry != null && entry.pixels != null ) {
+            hits++;
+            return entry.pixels;
+        }
+
+        misses++;
+        final int[] pixels = convert( sourcePixels, converter );
+        if ( entry == null ) {
+            entry = new Entry( version( converter ) );
+            entries.put( new Key( textureId, converter ), entry );
+        }
+        entry.pixels = pixels;
+        usedMemory += pixels.length * 4L;
+        evict();
+        return pixels;
+    }
+
+    /** Returns the id of the uploaded converted texture or -1 if there is none cached */
+    public final int getConvertedTextureId( int textureId, IntFunction converter ) {
+        final Entry entry = lookup( textureId, converter );
+        if ( entry != null && entry.convertedTextureId >= 0 ) {
+            hits++;
+            return entry.convertedTextureId;
+        }
+
+        misses++;
+        return -1;
+    }
+
+    /** Caches the id of an uploaded converted texture with the given size in bytes */
+    public final void putConvertedTextureId( int textureId, IntFunction converter, int convertedTextureId, int textureBytes ) {
+        Entry entry = lookup( textureId, converter );
+        if ( entry == null ) {
+            entry = new Entry( version( converter ) );
+            entries.put( new Key( textureId, converter ), entry );
+        } else if ( entry.convertedTextureId >= 0 ) {
+            usedMemory -= entry.textureBytes;
+        }
+
+        entry.convertedTextureId = convertedTextureId;
+        entry.textureBytes = textureBytes;
+        usedMemory += textureBytes;
+        evict();
+    }
+
+    /** Removes all cached entries of a texture, for example after the texture was disposed */
+    public final void remove( int textureId ) {
+        final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while ( iterator.hasNext() ) {
+            final Map.Entry<Key, Entry> entry = iterator.next();
+            if ( entry.getKey().textureId == textureId ) {
+                iterator.remove();
+                release( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+    public final void clear() {
+        final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while ( iterator.hasNext() ) {
+            final Map.Entry<Key, Entry> entry = iterator.next();
+            iterator.remove();
+            release( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    public final int size() {
+        return entries.size();
+    }
+
+    public final long getUsedMemory() {
+        return usedMemory;
+    }
+
+    public final long getHits() {
+        return hits;
+    }
+
+    public final long getMisses() {
+        return misses;
+    }
+
+    public final long getEvictions() {
+        return evictions;
+    }
+
+    public final void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private Entry lookup( int textureId, IntFunction converter ) {
+        lookupKey.textureId = textureId;
+        lookupKey.converter = converter;
+        Entry entry = entries.get( lookupKey );
+        if ( entry != null && entry.version != version( converter ) ) {
+            // converted with an old color mapping
+            entries.remove( lookupKey );
+            release( lookupKey, entry );
+            entry = null;
+        }
+        lookupKey.converter = null;
+        return entry;
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while ( usedMemory > memoryBudget && iterator.hasNext() ) {
+            final Map.Entry<Key, Entry> entry = iterator.next();
+            iterator.remove();
+            evictions++;
+            release( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    private void release( Key key, Entry entry ) {
+        if ( entry.pixels != null ) {
+            usedMemory -= entry.pixels.length * 4L;
+        }
+        if ( entry.convertedTextureId >= 0 ) {
+            usedMemory -= entry.textureBytes;
+        }
+        if ( evictionListener != null ) {
+            evictionListener.evicted( key.textureId, key.converter, entry.pixels, entry.convertedTextureId );
+        }
+    }
+
+    /** The modification count of the color mapping of the converter, 0 for converters that cannot be updated */
+    private static int version( IntFunction converter ) {
+        if ( converter instanceof IntColorConverter ) {
+            return ( (IntColorConverter) converter ).getModCount();
+        }
+        if ( converter instanceof IntColorConverterChain ) {
+            return ( (IntColorConverterChain) converter ).getModCount();
+        }
+        return 0;
+    }
+
+    private static int[] convert( int[] sourcePixels, IntFunction converter ) {
+        final int[] result = new int[ sourcePixels.length ];
+        if ( converter instanceof IntColorConverter ) {
+            ( (IntColorConverter) converter ).convert( sourcePixels, 0, result, 0, sourcePixels.length );
+        } else if ( converter instanceof IntColorConverterChain ) {
+            ( (IntColorConverterChain) converter ).convert( sourcePixels, 0, result, 0, sourcePixels.length );
+        } else {
+            for ( int i = 0; i < sourcePixels.length; i++ ) {
+                result[ i ] = converter.f( sourcePixels[ i ] );
+            }
+        }
+        return result;
+    }
+
+    private static final class Key {
+
+        int textureId;
+        IntFunction converter;
+
+        Key( int textureId, IntFunction converter ) {
+            this.textureId = textureId;
+            this.converter = converter;
+        }
+
+        @Override
+        public final int hashCode() {
+            return 31 * textureId + System.identityHashCode( converter );
+        }
+
+        @Override
+        public final boolean equals( Object obj ) {
+            if ( !( obj instanceof Key ) ) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return textureId == other.textureId && converter == other.converter;
+        }
+    }
+
+    private static final class Entry {
+        final int version;
+        int[] pixels = null;
+        int convertedTextureId = -1;
+        int textureBytes = 0;
+
+        Entry( int version ) {
+            this.version = version;
+        }
+    }
+
+}
@@ -1,24 +1,191 @@
 package com.inari.firefly.converter;
 
+import java.nio.IntBuffer;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.inari.commons.lang.functional.IntFunction;
 
 public class IntColorConverter implements IntFunction {
     
+    /** Number of pixels from which on a bulk conversion is split across all available cores */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+    
+    private static ForkJoinPool pool;
+    private static final AtomicInteger MODIFICATIONS = new AtomicInteger( 0 );
+    
     private final Map<Integer, Integer> colorMap;
+    private IntColorTable colorTable;
+    private int modCount = 0;
 
     public IntColorConverter( Map<Integer, Integer> colorMap ) {
         this.colorMap = colorMap;
+        colorTable = new IntColorTable( colorMap );
+    }
+    
+    public final void setColor( int color, int replaceColor ) {
+        colorMap.put( color, replaceColor );
+        update();
+    }
+    
+    public final void removeColor( int color ) {
+        colorMap.remove( color );
+        update();
+    }
+    
+    /** Rebuilds the conversion table from the color map. Call this after the color map was changed directly */
+    public final void update() {
+        colorTable = new IntColorTable( colorMap );
+        modCount++;
+        MODIFICATIONS.incrementAndGet();
+    }
+    
+    final Map<Integer, Integer> getColorMap() {
+        return colorMap;
+    }
+    
+    final int getModCount() {
+        return modCount;
+    }
+    
+    /** Counts the updates of all IntColorConverter instances, used to check compiled chains cheaply */
+    static int modifications() {
+        return MODIFICATIONS.get();
     }
 
     @Override
     public final int f( int colorValue ) {
-        Integer filteredColor = colorMap.get( colorValue );
-        if ( filteredColor != null ) {
-            return filteredColor;
+        return colorTable.get( colorValue );
+    }
+    
+    /** Converts the pixels in place */
+    public final void convert( int[] pixels, int offset, int length ) {
+        convert( pixels, offset, pixels, offset, length );
+    }
+    
+    /** Converts length pixels from source into dest. Source and dest may be the same array */
+    public final void convert( int[] source, int sourceOffset, int[] dest, int destOffset, int length ) {
+        if ( length >= PARALLEL_THRESHOLD ) {
+            getPool().invoke( new ConvertTask( source, sourceOffset, null, dest, destOffset, null, length ) );
+        } else {
+            convertRange( source, sourceOffset, dest, destOffset, length );
+        }
+    }
+    
+    /** Converts the remaining pixels of source into dest at its position. If dest is null, the pixels are converted in place.
+     *  The positions of the buffers are not changed.
+     */
+    public final void convert( IntBuffer source, IntBuffer dest ) {
+        if ( dest == null ) {
+            dest = source;
+        }
+        
+        final int length = source.remaining();
+        if ( dest.remaining() < length ) {
+            throw new IllegalArgumentException( "dest buffer has not enough space remaining: " + dest.remaining() );
+        }
+        
+        if ( source.hasArray() && dest.hasArray() ) {
+            convert( 
+                source.array(), source.arrayOffset() + source.position(), 
+                dest.array(), dest.arrayOffset() + dest.position(), 
+                length 
+            );
+            return;
+        }
+        
+        if ( length >= PARALLEL_THRESHOLD ) {
+            getPool().invoke( new ConvertTask( null, source.position(), source, null, dest.position(), dest, length ) );
+        } else {
+            convertRange( source, source.position(), dest, dest.position(), length );
+        }
+    }
+    
+    private void convertRange( final int[] source, final int sourceOffset, final int[] dest, final int destOffset, final int length ) {
+        if ( length == 0 ) {
+            return;
+        }
+        
+        final IntColorTable table = colorTable;
+        // runs of the same color are common in sprite sheets, so the last conversion is reused
+        int lastIn = source[ sourceOffset ];
+        int lastOut = table.get( lastIn );
+        for ( int i = 0; i < length; i++ ) {
+            final int color = source[ sourceOffset + i ];
+            if ( color != lastIn ) {
+                lastIn = color;
+                lastOut = table.get( color );
+            }
+            dest[ destOffset + i ] = lastOut;
+        }
+    }
+    
+    private void convertRange( final IntBuffer source, final int sourceOffset, final IntBuffer dest, final int destOffset, final int length ) {
+        if ( length == 0 ) {
+            return;
+        }
+        
+        final IntColorTable table = colorTable;
+        int lastIn = source.get( sourceOffset );
+        int lastOut = table.get( lastIn );
+        for ( int i = 0; i < length; i++ ) {
+            final int color = source.get( sourceOffset + i );
+            if ( color != lastIn ) {
+                lastIn = color;
+                lastOut = table.get( color );
+            }
+            dest.put( destOffset + i, lastOut );
+        }
+    }
+    
+    private static synchronized ForkJoinPool getPool() {
+        if ( pool == null ) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+    
+    private final class ConvertTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int[] sourceArray;
+        private final int sourceOffset;
+        private final IntBuffer sourceBuffer;
+        private final int[] destArray;
+        private final int destOffset;
+        private final IntBuffer destBuffer;
+        private final int length;
+        
+        ConvertTask( int[] sourceArray, int sourceOffset, IntBuffer sourceBuffer, int[] destArray, int destOffset, IntBuffer destBuffer, int length ) {
+            this.sourceArray = sourceArray;
+            this.sourceOffset = sourceOffset;
+            this.sourceBuffer = sourceBuffer;
+            this.destArray = destArray;
+            this.destOffset = destOffset;
+            this.destBuffer = destBuffer;
+            this.length = length;
+        }
+
+        @Override
+        protected final void compute() {
+            if ( length < PARALLEL_THRESHOLD ) {
+                if ( sourceArray != null ) {
+                    convertRange( sourceArray, sourceOffset, destArray, destOffset, length );
+                } else {
+                    convertRange( sourceBuffer, sourceOffset, destBuffer, destOffset, length );
+                }
+                return;
+            }
+            
+            final int half = length >>> 1;
+            invokeAll( 
+                new ConvertTask( sourceArray, sourceOffset, sourceBuffer, destArray, destOffset, destBuffer, half ),
+                new ConvertTask( sourceArray, sourceOffset + half, sourceBuffer, destArray, destOffset + half, destBuffer, length - half )
+            );
         }
-        return colorValue;
     }
 
     @Override
@@ -0,0 +1,107 @@
+package com.inari.firefly.converter;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.inari.commons.lang.functional.IntFunction;
+
+/** A chain of IntColorConverter that is compiled into a single conversion table. Every color costs one lookup
+ *  no matter how many converters are chained. The compiled table is reused until one of the chained converters
+ *  is updated.
+ */
+public final class IntColorConverterChain implements IntFunction {
+    
+    private final IntColorConverter[] converters;
+    private final int[] compiledModCounts;
+    
+    private IntColorConverter compiled;
+    private int compiledModifications = -1;
+    private int modCount = -1;
+
+    public IntColorConverterChain( IntColorConverter... converters ) {
+        this.converters = converters.clone();
+        compiledModCounts = new int[ converters.length ];
+        compile();
+    }
+
+    @Override
+    public final int f( int colorValue ) {
+        if ( compiledModifications != IntColorConverter.modifications() ) {
+            validate();
+        }
+        return compiled.f( colorValue );
+    }
+    
+    public final void convert( int[] pixels, int offset, int length ) {
+        validate();
+        compiled.convert( pixels, offset, length );
+    }
+    
+    public final void convert( int[] source, int sourceOffset, int[] dest, int destOffset, int length ) {
+        validate();
+        compiled.convert( source, sourceOffset, dest, destOffset, length );
+    }
+    
+    public final void convert( IntBuffer source, IntBuffer dest ) {
+        validate();
+        compiled.convert( source, dest );
+    }
+    
+    /** Counts the compilations of the chain, that is the updates of any of the chained converters */
+    final int getModCount() {
+        validate();
+        return modCount;
+    }
+
+    private void validate() {
+        final int modifications = IntColorConverter.modifications();
+        if ( compiledModifications == modifications ) {
+            return;
+        }
+        
+        for ( int i = 0; i < converters.length; i++ ) {
+            if ( converters[ i ].getModCount() != compiledModCounts[ i ] ) {
+                compile();
+                return;
+            }
+        }
+        compiledModifications = modifications;
+    }
+
+    private void compile() {
+        compiledModifications = IntColorConverter.modifications();
+        
+        // only colors that are a key of any converter in the chain can change, all others pass through unchanged
+        final Map<Integer, Integer> chainMap = new HashMap<Integer, Integer>();
+        for ( int i = 0; i < converters.length; i++ ) {
+            compiledModCounts[ i ] = converters[ i ].getModCount();
+            for ( Integer color : converters[ i ].getColorMap().keySet() ) {
+                if ( color != null ) {
+                    chainMap.put( color, color );
+                }
+            }
+        }
+        
+        for ( Map.Entry<Integer, Integer> entry : chainMap.entrySet() ) {
+            int color = entry.getKey();
+            for ( int i = 0; i < converters.length; i++ ) {
+                color = converters[ i ].f( color );
+            }
+            entry.setValue( color );
+        }
+        
+        compiled = new IntColorConverter( chainMap );
+        modCount++;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append( "IntColorConverterChain [converters=" );
+        builder.append( converters.length );
+        builder.append( "]" );
+        return builder.toString();
+    }
+
+}
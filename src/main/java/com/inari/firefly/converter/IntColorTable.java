@@ -0,0 +1,132 @@
+package com.inari.firefly.converter;
+
+import java.util.Map;
+
+/** Allocation free int to int hash table, built once from a color map.
+ *
+ *  The table first looks for a hash multiplier that puts every color of the map into a slot of its own, so a lookup
+ *  is a single probe with a conditional move instead of a probe loop. Empty slots map 0 to 0, which is the right
+ *  result for any color that hashes to them. If there is no such multiplier within a table of DIRECT_CAPACITY_FACTOR
+ *  times the map size, the table uses linear probing instead.
+ */
+final class IntColorTable {
+
+    private static final int DIRECT_CAPACITY_FACTOR = 64;
+    private static final int MULTIPLIER_ATTEMPTS = 32;
+    private static final int DEFAULT_MULTIPLIER = 0x9E3779B9;
+
+    private final int[] keys;
+    private final int[] values;
+    /** null if every color has a slot of its own */
+    private final boolean[] used;
+    private final int multiplier;
+    private final int mask;
+    private final int shift;
+    private final int size;
+
+    IntColorTable( Map<Integer, Integer> colorMap ) {
+        final int[] colors = new int[ colorMap.size() ];
+        final int[] replaceColors = new int[ colorMap.size() ];
+        int count = 0;
+        for ( Map.Entry<Integer, Integer> entry : colorMap.entrySet() ) {
+            if ( entry.getKey() != null && entry.getValue() != null ) {
+                colors[ count ] = entry.getKey();
+                replaceColors[ count ] = entry.getValue();
+                count++;
+            }
+        }
+        size = count;
+
+        int capacity = 8;
+        while ( capacity < count * 2 ) {
+            capacity <<= 1;
+        }
+
+        int directMultiplier = 0;
+        final int maxDirectCapacity = Math.max( 64, count * DIRECT_CAPACITY_FACTOR );
+        for ( int directCapacity = capacity; directCapacity <= maxDirectCapacity && directMultiplier == 0; directCapacity <<= 1 ) {
+            directMultiplier = findDirectMultiplier( colors, count, directCapacity );
+            if ( directMultiplier != 0 ) {
+                capacity = directCapacity;
+            }
+        }
+
+        keys = new int[ capacity ];
+        values = new int[ capacity ];
+        used = ( directMultiplier != 0 )? null : new boolean[ capacity ];
+        multiplier = ( directMultiplier != 0 )? directMultiplier : DEFAULT_MULTIPLIER;
+        mask = capacity - 1;
+        shift = 32 - Integer.numberOfTrailingZeros( capacity );
+        for ( int i = 0; i < count; i++ ) {
+            put( colors[ i ], replaceColors[ i ] );
+        }
+    }
+
+    final int size() {
+        return size;
+    }
+
+    /** Returns true if every color of the map has a slot of its own and a lookup is a single probe */
+    final boolean isDirect() {
+        return used == null;
+    }
+
+    /** Returns the value mapped to the key or the key itself if there is no mapping */
+    final int get( final int key ) {
+        int slot = ( key * multiplier ) >>> shift;
+        if ( used == null ) {
+            return ( keys[ slot ] == key )? values[ slot ] : key;
+        }
+
+        while ( used[ slot ] ) {
+            if ( keys[ slot ] == key ) {
+                return values[ slot ];
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        return key;
+    }
+
+    private void put( final int key, final int value ) {
+        int slot = ( key * multiplier ) >>> shift;
+        if ( used == null ) {
+            keys[ slot ] = key;
+            values[ slot ] = value;
+            return;
+        }
+
+        while ( used[ slot ] && keys[ slot ] != key ) {
+            slot = ( slot + 1 ) & mask;
+        }
+        keys[ slot ] = key;
+        values[ slot ] = value;
+        used[ slot ] = true;
+    }
+
+    /** Returns an odd multiplier that hashes all colors into different slots of a table of the given capacity,
+     *  or 0 if none was found
+     */
+    private static int findDirectMultiplier( final int[] colors, final int count, final int capacity ) {
+        final int shift = 32 - Integer.numberOfTrailingZeros( capacity );
+        // slots taken in the current attempt are marked with the attempt number, so the marks need no clearing
+        final int[] marks = new int[ capacity ];
+        int multiplier = DEFAULT_MULTIPLIER;
+        for ( int attempt = 1; attempt <= MULTIPLIER_ATTEMPTS; attempt++ ) {
+            int i = 0;
+            while ( i < count ) {
+                final int slot = ( colors[ i ] * multiplier ) >>> shift;
+                if ( marks[ slot ] == attempt ) {
+                    break;
+                }
+                marks[ slot ] = attempt;
+                i++;
+            }
+            if ( i == count ) {
+                return multiplier;
+            }
+            multiplier = ( multiplier * 0x2545F491 + 0x6C8E9CF5 ) | 1;
+        }
+        return 0;
+    }
+
+}
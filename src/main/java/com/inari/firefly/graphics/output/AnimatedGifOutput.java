@@ -1,7 +1,6 @@
 package com.inari.firefly.graphics.output;
 
 import com.inari.commons.geom.Rectangle;
-import com.inari.commons.graphics.AnimatedGifEncoder;
 import com.inari.firefly.FFInitException;
 import com.inari.firefly.system.FFContext;
 import com.inari.firefly.system.PostRenderEvent;
@@ -10,19 +9,28 @@ import com.inari.firefly.system.external.FFTimer;
 
 public final class AnimatedGifOutput implements PostRenderEventListener {
     
-    
     private Rectangle area = null;
     private long startTime = -1;
     private int frameDelay = -1;
     private int frames = -1;
     private String fileName;
+    private boolean async = false;
+    private int queueCapacity = 8;
+    private FramePool framePool = null;
+    private FrameCapture frameCapture = null;
+    private boolean deltaFrames = false;
+    private boolean parallelEncoding = false;
+    private boolean fixedPalette = false;
     
     private boolean running = false;
     private boolean started = false;
     private int frameNumber = 0;
     private long lastFrameTime = -1;
+    /** the time of the dropped frames since the last encoded frame, added to the delay of the next frame */
+    private int droppedDelay = 0;
     
-    private AnimatedGifEncoder animatedGifEncoder;
+    private FrameSink frameSink;
+    private AsyncFrameEncoder asyncEncoder;
 
     public final Rectangle getArea() {
         return area;
@@ -64,9 +72,100 @@ public final class AnimatedGifOutput implements PostRenderEventListener {
         this.fileName = fileName;
     }
 
-    public final void run( FFContext context ) {
-        if ( running ) {
-            return;
+    public final boolean isAsync() {
+        return async;
+    }
+
+    /** If true, the frames are only captured on the render thread and encoded by a background thread */
+    public final void setAsync( boolean async ) {
+        this.async = async;
+    }
+
+    public final int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public final void setQueueCapacity( int queueCapacity ) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public final FramePool getFramePool() {
+        return framePool;
+    }
+
+    /** Sets a pool of preallocated buffers the frames are captured into. The buffers are released back
+     *  to the pool as soon as the encoder is done with them. If the pool is empty, the frame is dropped.
+     *  The pool needs a FrameCapture that reads the frame buffer directly into the buffers. FFGraphics only
+     *  offers screenshots in a new array, so without a FrameCapture there is nothing a pool could save.
+     */
+    public final void setFramePool( FramePool framePool ) {
+        this.framePool = framePool;
+    }
+
+    public final FrameCapture getFrameCapture() {
+        return frameCapture;
+    }
+
+    /** Sets the backend specific capture that fills the pooled buffers without allocation. Without a capture
+     *  the frames are taken from FFGraphics.getScreenshotPixels, which allocates a new array per frame
+     */
+    public final void setFrameCapture( FrameCapture frameCapture ) {
+        this.frameCapture = frameCapture;
+    }
+
+    public final boolean isDeltaFrames() {
+        return deltaFrames;
+    }
+
+    /** If true, only the rectangle that has changed since the previous frame is encoded, with transparent
+     *  pixels where the frame is unchanged. This reduces encoding time and file size for mostly static frames
+     */
+    public final void setDeltaFrames( boolean deltaFrames ) {
+        this.deltaFrames = deltaFrames;
+    }
+
+    public final boolean isParallelEncoding() {
+        return parallelEncoding;
+    }
+
+    /** If true, the frames are quantized and compressed in batches on all available cores and written in order.
+     *  The encoding of a batch blocks the calling thread, so parallel encoding needs async
+     */
+    public final void setParallelEncoding( boolean parallelEncoding ) {
+        this.parallelEncoding = parallelEncoding;
+    }
+
+    public final boolean isFixedPalette() {
+        return fixedPalette;
+    }
+
+    /** If true, all frames are mapped to a fixed 6x7x6 color cube palette instead of a color table per frame.
+     *  The palette is not derived from the recorded frames but is the same for every recording. Smaller files,
+     *  but frames with many colors lose quality against their adaptive per frame palette.
+     *  Only used with parallel encoding
+     */
+    public final void setFixedPalette( boolean fixedPalette ) {
+        this.fixedPalette = fixedPalette;
+    }
+
+    public final int getDroppedFrames() {
+        return ( asyncEncoder != null )? asyncEncoder.getDroppedFrames() : 0;
+    }
+
+    public final int getQueueDepth() {
+        return ( asyncEncoder != null )? asyncEncoder.getQueueDepth() : 0;
+    }
+
+    public final boolean isEncoding() {
+        return asyncEncoder != null && !asyncEncoder.isFinished();
+    }
+
+    /** Starts a recording.
+     *  @return false if a recording is running or the encoding of the previous recording is not finished yet
+     */
+    public final boolean run( FFContext context ) {
+        if ( running || isEncoding() ) {
+            return false;
         }
         
         if ( fileName == null ) {
@@ -83,16 +182,32 @@ public final class AnimatedGifOutput implements PostRenderEventListener {
         if ( frames < 0 ) {
             frames = 10;
         }
+        if ( queueCapacity <= 0 ) {
+            queueCapacity = 1;
+        }
+        if ( framePool != null && frameCapture == null ) {
+            throw new FFInitException( "framePool needs a frameCapture that captures into the pooled buffers" );
+        }
+        if ( framePool != null && framePool.getBufferSize() != area.width * area.height * FramePool.BYTES_PER_PIXEL ) {
+            throw new FFInitException( "framePool buffer size does not match the area: " + area );
+        }
         
-        animatedGifEncoder = new AnimatedGifEncoder()
-            .setDelay( frameDelay )
-            .setRepeat( 0 )
-            .setTransparent( null )
-            .setSize( area.width, area.height );
+        if ( parallelEncoding && !async ) {
+            throw new FFInitException( "parallelEncoding needs async, the batch encoding blocks the calling thread" );
+        }
+        
+        if ( parallelEncoding ) {
+            frameSink = new ParallelGifSink( area.width, area.height, deltaFrames, fixedPalette );
+        } else if ( deltaFrames ) {
+            frameSink = new DeltaGifSink( area.width, area.height );
+        } else {
+            frameSink = new GifEncoderSink( area.width, area.height );
+        }
         
         context.registerListener( PostRenderEvent.TYPE_KEY, this );
         
         running = true;
+        return true;
     }
     
     public final void stop( FFContext context ) {
@@ -100,12 +215,17 @@ public final class AnimatedGifOutput implements PostRenderEventListener {
             return;
         }
         
-        animatedGifEncoder.finish();
-        animatedGifEncoder = null;
+        if ( asyncEncoder != null ) {
+            asyncEncoder.finish();
+        } else if ( started ) {
+            frameSink.finish();
+        }
+        frameSink = null;
         running = false;
         started = false;
         frameNumber = 0;
         lastFrameTime = -1;
+        droppedDelay = 0;
         context.disposeListener( PostRenderEvent.TYPE_KEY, this );
     }
 
@@ -116,7 +236,13 @@ public final class AnimatedGifOutput implements PostRenderEventListener {
             if ( timer.getTime() < startTime ) {
                 return;
             }
-            animatedGifEncoder.start( fileName );
+            if ( async ) {
+                asyncEncoder = new AsyncFrameEncoder( frameSink, fileName, queueCapacity, framePool );
+                asyncEncoder.start();
+            } else {
+                asyncEncoder = null;
+                frameSink.start( fileName );
+            }
             createFrame( context, timer.getTime() );
             started = true;
             return;
@@ -138,7 +264,44 @@ public final class AnimatedGifOutput implements PostRenderEventListener {
     private void createFrame( FFContext context, long time ) {
         frameNumber++;
         lastFrameTime = time;
-        animatedGifEncoder.addFrame( context.getGraphics().getScreenshotPixels( area ) );
+        final int delay = frameDelay + droppedDelay;
+        if ( framePool == null ) {
+            final byte[] pixels = context.getGraphics().getScreenshotPixels( area );
+            if ( asyncEncoder != null ) {
+                frameAdded( asyncEncoder.offer( pixels, delay ) );
+            } else {
+                frameSink.addFrame( pixels, delay );
+                frameAdded( true );
+            }
+            return;
+        }
+        
+        final byte[] pixels = framePool.obtain();
+        if ( pixels == null ) {
+            if ( asyncEncoder != null ) {
+                asyncEncoder.frameDropped();
+            }
+            frameAdded( false );
+            return;
+        }
+        
+        frameCapture.capture( context, area, pixels );
+        if ( asyncEncoder != null ) {
+            frameAdded( asyncEncoder.offer( pixels, delay ) );
+        } else {
+            frameSink.addFrame( pixels, delay );
+            framePool.release( pixels );
+            frameAdded( true );
+        }
+    }
+    
+    /** The time of a dropped frame is added to the delay of the next frame, so the GIF keeps the recorded timing */
+    private void frameAdded( boolean added ) {
+        if ( added ) {
+            droppedDelay = 0;
+        } else {
+            droppedDelay += frameDelay;
+        }
     }
 
 }
@@ -0,0 +1,115 @@
+package com.inari.firefly.graphics.output;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Encodes captured frames on a background thread. The render thread only offers the captured pixels
+ *  to a bounded queue and never waits for the encoder. If the queue is full the frame is dropped and counted.
+ *  The encoder thread is a daemon thread, so a recording that is not finished does not keep the JVM alive.
+ */
+final class AsyncFrameEncoder implements Runnable {
+
+    private static final long POLL_TIMEOUT = 50;
+
+    private final FrameSink encoder;
+    private final String fileName;
+    private final BlockingQueue<byte[]> queue;
+    /** the delays of the queued frames in queue order. One slot more than the queue capacity, so the slot of
+     *  a frame that is offered to a full queue is never the slot of a queued frame
+     */
+    private final int[] delays;
+    private int putIndex = 0;
+    private int takeIndex = 0;
+    private final FramePool framePool;
+    private final AtomicInteger droppedFrames = new AtomicInteger( 0 );
+    private final AtomicInteger encodedFrames = new AtomicInteger( 0 );
+
+    private volatile boolean finishing = false;
+    private volatile boolean finished = false;
+    private Thread thread;
+
+    AsyncFrameEncoder( FrameSink encoder, String fileName, int queueCapacity, FramePool framePool ) {
+        this.encoder = encoder;
+        this.fileName = fileName;
+        this.framePool = framePool;
+        queue = new ArrayBlockingQueue<byte[]>( queueCapacity );
+        delays = new int[ queueCapacity + 1 ];
+    }
+
+    final void start() {
+        thread = new Thread( this, "AnimatedGifOutput-Encoder" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /** Offers a frame with its delay in milliseconds to the encoder.
+     *  @return false if the frame was dropped
+     */
+    final boolean offer( byte[] pixels, int delay ) {
+        // the delay is written before the frame is queued, so the encoder thread sees it when it takes the frame
+        delays[ putIndex ] = delay;
+        if ( finishing || !queue.offer( pixels ) ) {
+            droppedFrames.incrementAndGet();
+            if ( framePool != null ) {
+                framePool.release( pixels );
+            }
+            return false;
+        }
+        putIndex = ( putIndex + 1 ) % delays.length;
+        return true;
+    }
+
+    /** Signals the encoder thread to encode all pending frames and finish the file. Does not block the caller. */
+    final void finish() {
+        finishing = true;
+    }
+
+    final void frameDropped() {
+        droppedFrames.incrementAndGet();
+    }
+
+    final int getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    final int getEncodedFrames() {
+        return encodedFrames.get();
+    }
+
+    final int getQueueDepth() {
+        return queue.size();
+    }
+
+    final boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public final void run() {
+        try {
+            encoder.start( fileName );
+            while ( true ) {
+                byte[] pixels = queue.poll( POLL_TIMEOUT, TimeUnit.MILLISECONDS );
+                if ( pixels != null ) {
+                    final int delay = delays[ takeIndex ];
+                    takeIndex = ( takeIndex + 1 ) % delays.length;
+                    encoder.addFrame( pixels, delay );
+                    encodedFrames.incrementAndGet();
+                    if ( framePool != null ) {
+                        framePool.release( pixels );
+                    }
+                } else if ( finishing ) {
+                    break;
+                }
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } finally {
+            encoder.finish();
+            finished = true;
+        }
+    }
+
+}
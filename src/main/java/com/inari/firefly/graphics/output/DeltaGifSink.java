@@ -0,0 +1,64 @@
+package com.inari.firefly.graphics.output;
+
+import java.io.IOException;
+
+import com.inari.firefly.FFInitException;
+
+/** FrameSink that encodes only the changed rectangle of each frame as a GIF sub-image with
+ *  transparent pixels where the frame is equal to the previous one
+ */
+final class DeltaGifSink implements FrameSink {
+    
+    private final int width;
+    private final int height;
+    
+    private final GifWriter writer;
+    private final GifFrameEncoder encoder = new GifFrameEncoder();
+    private final GifFrame frame = new GifFrame();
+    private byte[] previous;
+
+    DeltaGifSink( int width, int height ) {
+        this.width = width;
+        this.height = height;
+        writer = new GifWriter( width, height, 0 );
+    }
+
+    @Override
+    public final void start( String fileName ) {
+        try {
+            writer.start( fileName, null );
+        } catch ( IOException e ) {
+            throw new FFInitException( "Failed to start gif file: " + fileName, e );
+        }
+        previous = null;
+    }
+
+    @Override
+    public final void addFrame( byte[] pixels, int frameDelay ) {
+        final int delay = Math.round( frameDelay / 10f );
+        if ( previous == null ) {
+            encoder.encode( pixels, width, 0, 0, width, height, delay, frame );
+            previous = new byte[ pixels.length ];
+        } else {
+            encoder.encodeDelta( pixels, previous, width, height, delay, frame );
+        }
+        System.arraycopy( pixels, 0, previous, 0, pixels.length );
+        
+        try {
+            writer.writeFrame( frame );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to write gif frame", e );
+        }
+    }
+
+    @Override
+    public final void finish() {
+        try {
+            writer.finish();
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to finish gif file", e );
+        }
+        previous = null;
+    }
+
+}
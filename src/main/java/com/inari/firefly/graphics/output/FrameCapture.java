@@ -0,0 +1,13 @@
+package com.inari.firefly.graphics.output;
+
+import com.inari.commons.geom.Rectangle;
+import com.inari.firefly.system.FFContext;
+
+/** Captures the pixels of a screen area into a given buffer. A backend specific implementation can read the
+ *  frame buffer directly into the buffer and so avoid the allocation of FFGraphics.getScreenshotPixels
+ */
+public interface FrameCapture {
+    
+    void capture( FFContext context, Rectangle area, byte[] pixels );
+
+}
@@ -0,0 +1,57 @@
+package com.inari.firefly.graphics.output;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.inari.commons.geom.Rectangle;
+
+/** A fixed set of preallocated pixel buffers for screen capturing. The buffers are obtained by the capturing
+ *  thread and released by the encoding thread, so a capture of any length runs with a constant heap use.
+ */
+public final class FramePool {
+    
+    /** The screenshot pixels are RGB with one byte per color channel */
+    public static final int BYTES_PER_PIXEL = 3;
+    
+    private final int bufferSize;
+    private final int capacity;
+    private final BlockingQueue<byte[]> free;
+
+    public FramePool( int bufferSize, int capacity ) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        free = new ArrayBlockingQueue<byte[]>( capacity );
+        for ( int i = 0; i < capacity; i++ ) {
+            free.offer( new byte[ bufferSize ] );
+        }
+    }
+    
+    public FramePool( Rectangle area, int capacity ) {
+        this( area.width * area.height * BYTES_PER_PIXEL, capacity );
+    }
+
+    public final int getBufferSize() {
+        return bufferSize;
+    }
+
+    public final int getCapacity() {
+        return capacity;
+    }
+    
+    public final int getAvailable() {
+        return free.size();
+    }
+
+    /** Returns a free buffer or null if all buffers are in use */
+    public final byte[] obtain() {
+        return free.poll();
+    }
+
+    public final void release( byte[] buffer ) {
+        if ( buffer == null || buffer.length != bufferSize ) {
+            return;
+        }
+        free.offer( buffer );
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.inari.firefly.graphics.output;
+
+/** The encoding end of a frame capture. The frames are given in capture order as RGB pixels of the capture area.
+ *  The sink must not hold a reference to the pixels after addFrame returns since the buffer may be reused.
+ */
+interface FrameSink {
+    
+    void start( String fileName );
+    
+    /** @param delay the display time of the frame in milliseconds */
+    void addFrame( byte[] pixels, int delay );
+    
+    void finish();
+
+}
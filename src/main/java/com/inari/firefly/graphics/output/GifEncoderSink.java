@@ -0,0 +1,33 @@
+package com.inari.firefly.graphics.output;
+
+import com.inari.commons.graphics.AnimatedGifEncoder;
+
+/** FrameSink that encodes each full frame with the AnimatedGifEncoder */
+final class GifEncoderSink implements FrameSink {
+    
+    private final AnimatedGifEncoder encoder;
+
+    GifEncoderSink( int width, int height ) {
+        encoder = new AnimatedGifEncoder()
+            .setRepeat( 0 )
+            .setTransparent( null )
+            .setSize( width, height );
+    }
+
+    @Override
+    public final void start( String fileName ) {
+        encoder.start( fileName );
+    }
+
+    @Override
+    public final void addFrame( byte[] pixels, int delay ) {
+        encoder.setDelay( delay );
+        encoder.addFrame( pixels );
+    }
+
+    @Override
+    public final void finish() {
+        encoder.finish();
+    }
+
+}
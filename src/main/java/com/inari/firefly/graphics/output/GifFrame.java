@@ -0,0 +1,23 @@
+package com.inari.firefly.graphics.output;
+
+/** One encoded GIF image: the position within the logical screen, the local color table and the LZW compressed indices */
+final class GifFrame {
+    
+    static final int DISPOSAL_NONE = 1;
+    static final int DISPOSAL_BACKGROUND = 2;
+    
+    int x;
+    int y;
+    int width;
+    int height;
+    int delay;
+    int disposal = DISPOSAL_NONE;
+    int transparentIndex = -1;
+    /** RGB values of the local color table or null if the global color table is used */
+    int[] palette;
+    int paletteSize;
+    /** The LZW minimum code size byte followed by the data sub-blocks and the block terminator */
+    byte[] imageData;
+    int imageDataLength;
+
+}
@@ -0,0 +1,486 @@
+package com.inari.firefly.graphics.output;
+
+import java.util.Arrays;
+
+/** Quantizes RGB pixels of a frame region to a color table and LZW compresses the color indices into a GifFrame.
+ *  If a region has less than 256 distinct colors the exact colors are used, otherwise the pixels are mapped to an
+ *  adaptive palette of up to 255 colors, made by a median cut of the 5 bit per channel color histogram of the region.
+ *  With a fixed palette all frames are mapped to an uniform 6x7x6 color cube and refer to the global color table of
+ *  the stream, which costs color quality for frames with many colors. An instance keeps its working buffers between
+ *  frames and is not thread safe.
+ */
+final class GifFrameEncoder {
+
+    private static final int MAX_EXACT_COLORS = 255;
+    private static final int MAX_QUANTIZED_COLORS = 255;
+    private static final int HISTOGRAM_SIZE = 1 << 15;
+    private static final int CUBE_SIZE = 6 * 7 * 6;
+    private static final int[] CUBE_PALETTE = createCubePalette();
+
+    private static final int MAX_CODES = 4096;
+    private static final int HASH_BITS = 13;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+
+    private boolean fixedPalette = false;
+    private final int[] colorKeys = new int[ 1024 ];
+    private final int[] colorIndices = new int[ 1024 ];
+    private final int[] palette = new int[ 256 ];
+    private byte[] indices = new byte[ 0 ];
+
+    private int[] histogram;
+    private long[] histogramSums;
+    private int[] bins;
+    private int[] sortedBins;
+    private byte[] binIndices;
+    private final int[] channelOffsets = new int[ 33 ];
+    private final int[] boxStart = new int[ MAX_QUANTIZED_COLORS ];
+    private final int[] boxEnd = new int[ MAX_QUANTIZED_COLORS ];
+    private final int[] boxShift = new int[ MAX_QUANTIZED_COLORS ];
+    private final long[] boxScore = new long[ MAX_QUANTIZED_COLORS ];
+
+    private final int[] codeKeys = new int[ HASH_SIZE ];
+    private final int[] codeValues = new int[ HASH_SIZE ];
+    private byte[] data;
+    private int dataLength;
+    private int blockStart;
+    private int bitBuffer;
+    private int bitCount;
+
+    final void setFixedPalette( boolean fixedPalette ) {
+        this.fixedPalette = fixedPalette;
+    }
+
+    /** Encodes the region x, y, w, h of the RGB pixels with the given line width as full image */
+    final void encode( byte[] rgb, int stride, int x, int y, int w, int h, int delay, GifFrame frame ) {
+        encodeRegion( rgb, null, stride, x, y, w, h, delay, frame );
+    }
+
+    /** Encodes only the bounding rectangle of the pixels that differ from the previous frame. Unchanged pixels within
+     *  the rectangle are transparent so the previous image shows through. If nothing has changed, a single transparent
+     *  pixel is encoded to keep the frame timing.
+     */
+    final void encodeDelta( byte[] rgb, byte[] previous, int width, int height, int delay, GifFrame frame ) {
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for ( int y = 0; y < height; y++ ) {
+            final int lineStart = y * width * 3;
+            final int lineEnd = lineStart + width * 3;
+            int first = lineStart;
+            while ( first < lineEnd && rgb[ first ] == previous[ first ] ) {
+                first++;
+            }
+            if ( first == lineEnd ) {
+                continue;
+            }
+            int last = lineEnd - 1;
+            while ( rgb[ last ] == previous[ last ] ) {
+                last--;
+            }
+
+            minY = Math.min( minY, y );
+            maxY = y;
+            minX = Math.min( minX, ( first - lineStart ) / 3 );
+            maxX = Math.max( maxX, ( last - lineStart ) / 3 );
+        }
+
+        if ( maxY < 0 ) {
+            encodeRegion( rgb, rgb, width, 0, 0, 1, 1, delay, frame );
+            return;
+        }
+
+        encodeRegion( rgb, previous, width, minX, minY, maxX - minX + 1, maxY - minY + 1, delay, frame );
+    }
+
+    private void encodeRegion( byte[] rgb, byte[] previous, int stride, int x, int y, int w, int h, int delay, GifFrame frame ) {
+        final int size = w * h;
+        if ( indices.length < size ) {
+            indices = new byte[ size ];
+        }
+
+        boolean hasTransparent = false;
+        int colors = 0;
+        boolean exact = !fixedPalette;
+        Arrays.fill( colorKeys, -1 );
+
+        int i = 0;
+        for ( int row = y; row < y + h; row++ ) {
+            int offset = ( row * stride + x ) * 3;
+            for ( int col = 0; col < w; col++, offset += 3, i++ ) {
+                if ( previous != null
+                        && rgb[ offset ] == previous[ offset ]
+                        && rgb[ offset + 1 ] == previous[ offset + 1 ]
+                        && rgb[ offset + 2 ] == previous[ offset + 2 ] ) {
+                    indices[ i ] = -1;
+                    hasTransparent = true;
+                    continue;
+                }
+
+                final int color = ( ( rgb[ offset ] & 0xff ) << 16 ) | ( ( rgb[ offset + 1 ] & 0xff ) << 8 ) | ( rgb[ offset + 2 ] & 0xff );
+                if ( exact ) {
+                    final int slot = colorSlot( color );
+                    if ( colorKeys[ slot ] < 0 ) {
+                        if ( colors == MAX_EXACT_COLORS ) {
+                            exact = false;
+                        } else {
+                            colorKeys[ slot ] = color;
+                            colorIndices[ slot ] = colors;
+                            palette[ colors ] = color;
+                            colors++;
+                        }
+                    }
+                    if ( exact ) {
+                        indices[ i ] = (byte) colorIndices[ slot ];
+                        continue;
+                    }
+                }
+                if ( !fixedPalette ) {
+                    // mapped by quantize
+                    indices[ i ] = 0;
+                    continue;
+                }
+                indices[ i ] = (byte) cubeIndex( color );
+            }
+        }
+
+        if ( !exact && !fixedPalette ) {
+            // the pixels before the overflow are mapped to the exact palette; map all of them to an adaptive palette
+            colors = quantize( rgb, previous, stride, x, y, w, h );
+        }
+
+        int transparentIndex = -1;
+        if ( hasTransparent ) {
+            if ( fixedPalette ) {
+                // the fixed palette contains the transparent color after the color cube
+                transparentIndex = CUBE_SIZE;
+            } else {
+                transparentIndex = colors;
+                palette[ colors ] = 0;
+                colors++;
+            }
+            for ( int j = 0; j < size; j++ ) {
+                if ( indices[ j ] == -1 ) {
+                    indices[ j ] = (byte) transparentIndex;
+                }
+            }
+        }
+
+        frame.x = x;
+        frame.y = y;
+        frame.width = w;
+        frame.height = h;
+        frame.delay = delay;
+        frame.transparentIndex = transparentIndex;
+        frame.disposal = GifFrame.DISPOSAL_NONE;
+        if ( fixedPalette ) {
+            frame.palette = null;
+            frame.paletteSize = 0;
+            compress( indices, size, tableSizeBits( CUBE_SIZE + 1 ), frame );
+            return;
+        }
+        
+        if ( frame.palette == null || frame.palette.length < colors ) {
+            frame.palette = new int[ 256 ];
+        }
+        System.arraycopy( palette, 0, frame.palette, 0, colors );
+        frame.paletteSize = colors;
+
+        compress( indices, size, Math.max( 2, tableSizeBits( colors ) ), frame );
+    }
+
+    /** Maps the non transparent pixels of the region to an adaptive palette by a median cut of their color histogram.
+     *  The box with the most pixels times its longest side is split at its pixel median until there are
+     *  MAX_QUANTIZED_COLORS boxes or no box can be split anymore. Each box gets the mean color of its pixels.
+     *  @return the number of colors
+     */
+    private int quantize( byte[] rgb, byte[] previous, int stride, int x, int y, int w, int h ) {
+        if ( histogram == null ) {
+            histogram = new int[ HISTOGRAM_SIZE ];
+            histogramSums = new long[ HISTOGRAM_SIZE * 3 ];
+            bins = new int[ HISTOGRAM_SIZE ];
+            sortedBins = new int[ HISTOGRAM_SIZE ];
+            binIndices = new byte[ HISTOGRAM_SIZE ];
+        }
+        Arrays.fill( histogram, 0 );
+        Arrays.fill( histogramSums, 0L );
+
+        int i = 0;
+        for ( int row = y; row < y + h; row++ ) {
+            int offset = ( row * stride + x ) * 3;
+            for ( int col = 0; col < w; col++, offset += 3, i++ ) {
+                if ( previous != null && indices[ i ] == -1 ) {
+                    continue;
+                }
+                final int r = rgb[ offset ] & 0xff;
+                final int g = rgb[ offset + 1 ] & 0xff;
+                final int b = rgb[ offset + 2 ] & 0xff;
+                final int bin = histogramBin( r, g, b );
+                histogram[ bin ]++;
+                histogramSums[ bin * 3 ] += r;
+                histogramSums[ bin * 3 + 1 ] += g;
+                histogramSums[ bin * 3 + 2 ] += b;
+            }
+        }
+
+        int binCount = 0;
+        for ( int bin = 0; bin < HISTOGRAM_SIZE; bin++ ) {
+            if ( histogram[ bin ] > 0 ) {
+                bins[ binCount++ ] = bin;
+            }
+        }
+
+        int boxes = 1;
+        initBox( 0, 0, binCount );
+        while ( boxes < MAX_QUANTIZED_COLORS ) {
+            int box = -1;
+            for ( int b = 0; b < boxes; b++ ) {
+                if ( boxScore[ b ] > 0 && ( box < 0 || boxScore[ b ] > boxScore[ box ] ) ) {
+                    box = b;
+                }
+            }
+            if ( box < 0 ) {
+                break;
+            }
+
+            final int split = split( box );
+            initBox( boxes, split, boxEnd[ box ] );
+            initBox( box, boxStart[ box ], split );
+            boxes++;
+        }
+
+        for ( int b = 0; b < boxes; b++ ) {
+            long count = 0, sumR = 0, sumG = 0, sumB = 0;
+            for ( int j = boxStart[ b ]; j < boxEnd[ b ]; j++ ) {
+                final int bin = bins[ j ];
+                count += histogram[ bin ];
+                sumR += histogramSums[ bin * 3 ];
+                sumG += histogramSums[ bin * 3 + 1 ];
+                sumB += histogramSums[ bin * 3 + 2 ];
+                binIndices[ bin ] = (byte) b;
+            }
+            palette[ b ] = (int) ( sumR / count ) << 16 | (int) ( sumG / count ) << 8 | (int) ( sumB / count );
+        }
+
+        i = 0;
+        for ( int row = y; row < y + h; row++ ) {
+            int offset = ( row * stride + x ) * 3;
+            for ( int col = 0; col < w; col++, offset += 3, i++ ) {
+                if ( previous != null && indices[ i ] == -1 ) {
+                    continue;
+                }
+                indices[ i ] = binIndices[ histogramBin( rgb[ offset ] & 0xff, rgb[ offset + 1 ] & 0xff, rgb[ offset + 2 ] & 0xff ) ];
+            }
+        }
+        return boxes;
+    }
+
+    private void initBox( int box, int start, int end ) {
+        boxStart[ box ] = start;
+        boxEnd[ box ] = end;
+        if ( end - start < 2 ) {
+            boxScore[ box ] = 0;
+            return;
+        }
+
+        int minR = 31, minG = 31, minB = 31, maxR = 0, maxG = 0, maxB = 0;
+        long count = 0;
+        for ( int j = start; j < end; j++ ) {
+            final int bin = bins[ j ];
+            final int r = bin >> 10;
+            final int g = ( bin >> 5 ) & 31;
+            final int b = bin & 31;
+            minR = Math.min( minR, r );
+            maxR = Math.max( maxR, r );
+            minG = Math.min( minG, g );
+            maxG = Math.max( maxG, g );
+            minB = Math.min( minB, b );
+            maxB = Math.max( maxB, b );
+            count += histogram[ bin ];
+        }
+
+        final int rangeR = maxR - minR;
+        final int rangeG = maxG - minG;
+        final int rangeB = maxB - minB;
+        if ( rangeG >= rangeR && rangeG >= rangeB ) {
+            boxShift[ box ] = 5;
+            boxScore[ box ] = count * rangeG;
+        } else if ( rangeR >= rangeB ) {
+            boxShift[ box ] = 10;
+            boxScore[ box ] = count * rangeR;
+        } else {
+            boxShift[ box ] = 0;
+            boxScore[ box ] = count * rangeB;
+        }
+    }
+
+    /** Sorts the bins of the box along its longest side and returns the index of the first bin after the pixel median */
+    private int split( int box ) {
+        final int start = boxStart[ box ];
+        final int end = boxEnd[ box ];
+        final int shift = boxShift[ box ];
+
+        Arrays.fill( channelOffsets, 0 );
+        long count = 0;
+        for ( int j = start; j < end; j++ ) {
+            channelOffsets[ ( ( bins[ j ] >> shift ) & 31 ) + 1 ]++;
+            count += histogram[ bins[ j ] ];
+        }
+        for ( int value = 1; value < channelOffsets.length; value++ ) {
+            channelOffsets[ value ] += channelOffsets[ value - 1 ];
+        }
+        for ( int j = start; j < end; j++ ) {
+            sortedBins[ start + channelOffsets[ ( bins[ j ] >> shift ) & 31 ]++ ] = bins[ j ];
+        }
+        System.arraycopy( sortedBins, start, bins, start, end - start );
+
+        long below = 0;
+        for ( int j = start; j < end - 1; j++ ) {
+            below += histogram[ bins[ j ] ];
+            if ( below * 2 >= count ) {
+                return j + 1;
+            }
+        }
+        return end - 1;
+    }
+
+    private int colorSlot( int color ) {
+        int slot = ( ( color * 0x9E3779B1 ) >>> 22 );
+        while ( colorKeys[ slot ] >= 0 && colorKeys[ slot ] != color ) {
+            slot = ( slot + 1 ) & 1023;
+        }
+        return slot;
+    }
+
+    private void compress( byte[] pixels, int length, int minCodeSize, GifFrame frame ) {
+        data = ( frame.imageData != null )? frame.imageData : new byte[ 1024 ];
+        dataLength = 0;
+        ensureData( 1 );
+        data[ dataLength++ ] = (byte) minCodeSize;
+        blockStart = -1;
+        bitBuffer = 0;
+        bitCount = 0;
+
+        final int clearCode = 1 << minCodeSize;
+        final int eoiCode = clearCode + 1;
+        int nextCode = eoiCode + 1;
+        int codeSize = minCodeSize + 1;
+        Arrays.fill( codeKeys, -1 );
+
+        writeCode( clearCode, codeSize );
+        int prefix = pixels[ 0 ] & 0xff;
+        for ( int i = 1; i < length; i++ ) {
+            final int c = pixels[ i ] & 0xff;
+            final int key = ( prefix << 8 ) | c;
+            int slot = ( key * 0x9E3779B1 ) >>> ( 32 - HASH_BITS );
+            while ( codeKeys[ slot ] >= 0 && codeKeys[ slot ] != key ) {
+                slot = ( slot + 1 ) & ( HASH_SIZE - 1 );
+            }
+            if ( codeKeys[ slot ] == key ) {
+                prefix = codeValues[ slot ];
+                continue;
+            }
+
+            writeCode( prefix, codeSize );
+            if ( nextCode == MAX_CODES ) {
+                writeCode( clearCode, codeSize );
+                nextCode = eoiCode + 1;
+                codeSize = minCodeSize + 1;
+                Arrays.fill( codeKeys, -1 );
+            } else {
+                if ( nextCode >= ( 1 << codeSize ) ) {
+                    codeSize++;
+                }
+                codeKeys[ slot ] = key;
+                codeValues[ slot ] = nextCode++;
+            }
+            prefix = c;
+        }
+        writeCode( prefix, codeSize );
+        // the decoder adds the code of the last prefix and widens its code size before it reads the end of information
+        if ( nextCode >= ( 1 << codeSize ) && codeSize < 12 ) {
+            codeSize++;
+        }
+        writeCode( eoiCode, codeSize );
+        if ( bitCount > 0 ) {
+            writeByte( bitBuffer & 0xff );
+        }
+        closeBlock();
+        ensureData( 1 );
+        data[ dataLength++ ] = 0;
+
+        frame.imageData = data;
+        frame.imageDataLength = dataLength;
+        data = null;
+    }
+
+    private void writeCode( int code, int codeSize ) {
+        bitBuffer |= code << bitCount;
+        bitCount += codeSize;
+        while ( bitCount >= 8 ) {
+            writeByte( bitBuffer & 0xff );
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void writeByte( int value ) {
+        if ( blockStart < 0 || dataLength - blockStart - 1 == 255 ) {
+            closeBlock();
+            ensureData( 1 );
+            blockStart = dataLength++;
+        }
+        ensureData( 1 );
+        data[ dataLength++ ] = (byte) value;
+    }
+
+    private void closeBlock() {
+        if ( blockStart >= 0 ) {
+            data[ blockStart ] = (byte) ( dataLength - blockStart - 1 );
+            blockStart = -1;
+        }
+    }
+
+    private void ensureData( int additional ) {
+        if ( dataLength + additional > data.length ) {
+            data = Arrays.copyOf( data, Math.max( data.length * 2, dataLength + additional ) );
+        }
+    }
+
+    /** The global color table used with a fixed palette: the color cube followed by the transparent color */
+    static int[] fixedPaletteColors() {
+        int[] result = new int[ CUBE_SIZE + 1 ];
+        System.arraycopy( CUBE_PALETTE, 0, result, 0, CUBE_SIZE );
+        return result;
+    }
+
+    private static int histogramBin( int r, int g, int b ) {
+        return ( ( r >> 3 ) << 10 ) | ( ( g >> 3 ) << 5 ) | ( b >> 3 );
+    }
+
+    static int cubeIndex( int color ) {
+        final int r = ( ( color >> 16 ) & 0xff ) * 6 >> 8;
+        final int g = ( ( color >> 8 ) & 0xff ) * 7 >> 8;
+        final int b = ( color & 0xff ) * 6 >> 8;
+        return r * 42 + g * 6 + b;
+    }
+
+    /** The number of bits of a color table that holds the given number of colors, at least 1 */
+    static int tableSizeBits( int colors ) {
+        int bits = 1;
+        while ( ( 1 << bits ) < colors ) {
+            bits++;
+        }
+        return bits;
+    }
+
+    private static int[] createCubePalette() {
+        int[] result = new int[ CUBE_SIZE ];
+        for ( int r = 0; r < 6; r++ ) {
+            for ( int g = 0; g < 7; g++ ) {
+                for ( int b = 0; b < 6; b++ ) {
+                    result[ r * 42 + g * 6 + b ] = ( ( r * 255 / 5 ) << 16 ) | ( ( g * 255 / 6 ) << 8 ) | ( b * 255 / 5 );
+                }
+            }
+        }
+        return result;
+    }
+
+}
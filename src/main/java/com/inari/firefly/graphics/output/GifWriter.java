@@ -0,0 +1,119 @@
+package com.inari.firefly.graphics.output;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Writes GIF89a streams from already encoded GifFrame images */
+final class GifWriter {
+
+    private final int width;
+    private final int height;
+    private final int repeat;
+
+    private OutputStream out;
+
+    GifWriter( int width, int height, int repeat ) {
+        this.width = width;
+        this.height = height;
+        this.repeat = repeat;
+    }
+
+    final void start( String fileName, int[] globalPalette ) throws IOException {
+        start( new BufferedOutputStream( new FileOutputStream( fileName ) ), globalPalette );
+    }
+
+    final void start( OutputStream out, int[] globalPalette ) throws IOException {
+        this.out = out;
+
+        writeString( "GIF89a" );
+        writeShort( width );
+        writeShort( height );
+        if ( globalPalette != null ) {
+            int sizeBits = GifFrameEncoder.tableSizeBits( globalPalette.length );
+            out.write( 0x80 | 0x70 | ( sizeBits - 1 ) );
+        } else {
+            out.write( 0x70 );
+        }
+        out.write( 0 );
+        out.write( 0 );
+        if ( globalPalette != null ) {
+            writePalette( globalPalette, globalPalette.length );
+        }
+
+        if ( repeat >= 0 ) {
+            out.write( 0x21 );
+            out.write( 0xff );
+            out.write( 11 );
+            writeString( "NETSCAPE2.0" );
+            out.write( 3 );
+            out.write( 1 );
+            writeShort( repeat );
+            out.write( 0 );
+        }
+    }
+
+    final void writeFrame( GifFrame frame ) throws IOException {
+        // graphic control extension
+        out.write( 0x21 );
+        out.write( 0xf9 );
+        out.write( 4 );
+        out.write( ( frame.disposal << 2 ) | ( ( frame.transparentIndex >= 0 )? 1 : 0 ) );
+        writeShort( frame.delay );
+        out.write( ( frame.transparentIndex >= 0 )? frame.transparentIndex : 0 );
+        out.write( 0 );
+
+        // image descriptor
+        out.write( 0x2c );
+        writeShort( frame.x );
+        writeShort( frame.y );
+        writeShort( frame.width );
+        writeShort( frame.height );
+        if ( frame.palette != null ) {
+            int sizeBits = GifFrameEncoder.tableSizeBits( frame.paletteSize );
+            out.write( 0x80 | ( sizeBits - 1 ) );
+            writePalette( frame.palette, frame.paletteSize );
+        } else {
+            out.write( 0 );
+        }
+
+        out.write( frame.imageData, 0, frame.imageDataLength );
+    }
+
+    final void finish() throws IOException {
+        if ( out == null ) {
+            return;
+        }
+
+        try {
+            out.write( 0x3b );
+            out.flush();
+        } finally {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void writePalette( int[] palette, int size ) throws IOException {
+        int tableSize = 1 << GifFrameEncoder.tableSizeBits( size );
+        for ( int i = 0; i < tableSize; i++ ) {
+            int rgb = ( i < size )? palette[ i ] : 0;
+            out.write( ( rgb >> 16 ) & 0xff );
+            out.write( ( rgb >> 8 ) & 0xff );
+            out.write( rgb & 0xff );
+        }
+    }
+
+    private void writeShort( int value ) throws IOException {
+        out.write( value & 0xff );
+        out.write( ( value >> 8 ) & 0xff );
+    }
+
+    private void writeString( String value ) throws IOException {
+        for ( int i = 0; i < value.length(); i++ ) {
+            out.write( (byte) value.charAt( i ) );
+        }
+    }
+
+}
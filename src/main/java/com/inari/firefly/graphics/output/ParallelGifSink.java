@@ -0,0 +1,150 @@
+package com.inari.firefly.graphics.output;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.inari.firefly.FFInitException;
+
+/** FrameSink that collects the frames in batches and quantizes and compresses the frames of a batch in parallel
+ *  on a fork-join pool. The encoded frames are written in capture order. Since a delta frame only depends on the
+ *  raw pixels of its previous frame, delta frames are encoded in parallel as well. Flushing a batch blocks the
+ *  calling thread until the batch is written, so the sink is only used from an encoder or writer thread.
+ */
+final class ParallelGifSink implements FrameSink {
+    
+    private final int width;
+    private final int height;
+    private final boolean deltaFrames;
+    private final boolean fixedPalette;
+    
+    private final GifWriter writer;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<GifFrameEncoder> encoders;
+    private final byte[][] batch;
+    /** the delays of the frames of the batch in 1/100 seconds */
+    private final int[] delays;
+    private final GifFrame[] frames;
+    private int batchLength = 0;
+    private byte[] previous;
+
+    ParallelGifSink( int width, int height, boolean deltaFrames, final boolean fixedPalette ) {
+        this.width = width;
+        this.height = height;
+        this.deltaFrames = deltaFrames;
+        this.fixedPalette = fixedPalette;
+        writer = new GifWriter( width, height, 0 );
+        
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool( parallelism );
+        encoders = new ThreadLocal<GifFrameEncoder>() {
+            @Override
+            protected final GifFrameEncoder initialValue() {
+                GifFrameEncoder encoder = new GifFrameEncoder();
+                encoder.setFixedPalette( fixedPalette );
+                return encoder;
+            }
+        };
+        batch = new byte[ parallelism * 2 ][];
+        delays = new int[ batch.length ];
+        frames = new GifFrame[ batch.length ];
+        for ( int i = 0; i < frames.length; i++ ) {
+            frames[ i ] = new GifFrame();
+        }
+    }
+
+    @Override
+    public final void start( String fileName ) {
+        try {
+            writer.start( fileName, ( fixedPalette )? GifFrameEncoder.fixedPaletteColors() : null );
+        } catch ( IOException e ) {
+            throw new FFInitException( "Failed to start gif file: " + fileName, e );
+        }
+        previous = null;
+        batchLength = 0;
+    }
+
+    @Override
+    public final void addFrame( byte[] pixels, int delay ) {
+        if ( batch[ batchLength ] == null ) {
+            batch[ batchLength ] = new byte[ pixels.length ];
+        }
+        System.arraycopy( pixels, 0, batch[ batchLength ], 0, pixels.length );
+        delays[ batchLength ] = Math.round( delay / 10f );
+        batchLength++;
+        
+        if ( batchLength == batch.length ) {
+            flush();
+        }
+    }
+
+    @Override
+    public final void finish() {
+        try {
+            flush();
+            writer.finish();
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to finish gif file", e );
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    private void flush() {
+        if ( batchLength == 0 ) {
+            return;
+        }
+        
+        pool.invoke( new EncodeTask( 0, batchLength ) );
+        try {
+            for ( int i = 0; i < batchLength; i++ ) {
+                writer.writeFrame( frames[ i ] );
+            }
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to write gif frame", e );
+        }
+        
+        // keep the last frame of the batch as previous of the next batch by swapping the buffers
+        if ( deltaFrames ) {
+            byte[] last = batch[ batchLength - 1 ];
+            batch[ batchLength - 1 ] = previous;
+            previous = last;
+        }
+        batchLength = 0;
+    }
+    
+    private void encode( int index ) {
+        final GifFrameEncoder encoder = encoders.get();
+        final byte[] prev = ( index == 0 )? previous : batch[ index - 1 ];
+        if ( deltaFrames && prev != null ) {
+            encoder.encodeDelta( batch[ index ], prev, width, height, delays[ index ], frames[ index ] );
+        } else {
+            encoder.encode( batch[ index ], width, 0, 0, width, height, delays[ index ], frames[ index ] );
+        }
+    }
+    
+    private final class EncodeTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int from;
+        private final int to;
+
+        EncodeTask( int from, int to ) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected final void compute() {
+            if ( to - from == 1 ) {
+                encode( from );
+                return;
+            }
+            
+            final int middle = ( from + to ) >>> 1;
+            invokeAll( new EncodeTask( from, middle ), new EncodeTask( middle, to ) );
+        }
+    }
+
+}
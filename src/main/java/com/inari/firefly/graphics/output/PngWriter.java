@@ -0,0 +1,81 @@
+package com.inari.firefly.graphics.output;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** Writes RGB pixels as a 8 bit truecolor PNG image without any dependency to AWT.
+ *  The writer keeps one Deflater for all images; close releases it.
+ */
+final class PngWriter {
+    
+    private static final byte[] SIGNATURE = new byte[] { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    
+    private final int width;
+    private final int height;
+    private final ByteArrayOutputStream chunkData = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater = new Deflater();
+
+    PngWriter( int width, int height ) {
+        this.width = width;
+        this.height = height;
+    }
+    
+    final void write( byte[] rgb, String fileName ) throws IOException {
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileName ) ) );
+        try {
+            out.write( SIGNATURE );
+            
+            chunkData.reset();
+            DataOutputStream header = new DataOutputStream( chunkData );
+            header.writeInt( width );
+            header.writeInt( height );
+            header.writeByte( 8 );
+            header.writeByte( 2 );
+            header.writeByte( 0 );
+            header.writeByte( 0 );
+            header.writeByte( 0 );
+            writeChunk( out, "IHDR" );
+            
+            chunkData.reset();
+            deflater.reset();
+            DeflaterOutputStream imageData = new DeflaterOutputStream( chunkData, deflater );
+            final int lineLength = width * 3;
+            for ( int y = 0; y < height; y++ ) {
+                imageData.write( 0 );
+                imageData.write( rgb, y * lineLength, lineLength );
+            }
+            imageData.finish();
+            writeChunk( out, "IDAT" );
+            
+            chunkData.reset();
+            writeChunk( out, "IEND" );
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Releases the native memory of the Deflater. The writer cannot be used anymore afterwards */
+    final void close() {
+        deflater.end();
+    }
+
+    private void writeChunk( DataOutputStream out, String type ) throws IOException {
+        final byte[] typeBytes = type.getBytes( "US-ASCII" );
+        final byte[] data = chunkData.toByteArray();
+        out.writeInt( data.length );
+        out.write( typeBytes );
+        out.write( data );
+        crc.reset();
+        crc.update( typeBytes );
+        crc.update( data );
+        out.writeInt( (int) crc.getValue() );
+    }
+
+}
@@ -0,0 +1,293 @@
+package com.inari.firefly.graphics.output;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.inari.commons.geom.Rectangle;
+import com.inari.firefly.FFInitException;
+import com.inari.firefly.system.FFContext;
+import com.inari.firefly.system.PostRenderEvent;
+import com.inari.firefly.system.PostRenderEventListener;
+import com.inari.firefly.system.external.FFTimer;
+
+/** Records the raw screen pixels of an area into a memory mapped file without any encoding at capture time.
+ *  The file is mapped in chunks and grows as needed; a chunk is unmapped as soon as it is full. Written pages are
+ *  left to the operating system to write back, so no chunk change waits for the disk on the render thread. Use RawFrameTranscoder to create a GIF or a PNG sequence
+ *  from the recorded file.
+ *
+ *  File format (big endian): header with magic, version, width, height, bytes per pixel and frame delay,
+ *  followed by frames of capture time (long), pixel data length (int) and the RGB pixel data.
+ *  A frame with length 0 or the end of the file marks the end of the recording.
+ */
+public final class RawFrameRecorder implements PostRenderEventListener {
+
+    static final int MAGIC = 0x46465246; // FFRF
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int FRAME_HEADER_SIZE = 12;
+
+    private Rectangle area = null;
+    private long startTime = -1;
+    private int frameDelay = 0;
+    private int frames = -1;
+    private String fileName;
+    private int chunkSize = 64 * 1024 * 1024;
+    private FrameCapture frameCapture = null;
+
+    private boolean running = false;
+    private boolean started = false;
+    private int frameNumber = 0;
+    private long lastFrameTime = -1;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long mappedPosition;
+    private byte[] pixels;
+
+    public final Rectangle getArea() {
+        return area;
+    }
+
+    public final void setArea( Rectangle area ) {
+        this.area = area;
+    }
+
+    public final long getStartTime() {
+        return startTime;
+    }
+
+    public final void setStartTime( long startTime ) {
+        this.startTime = startTime;
+    }
+
+    public final int getFrameDelay() {
+        return frameDelay;
+    }
+
+    /** The minimum time in milliseconds between two recorded frames. The default 0 records every rendered frame.
+     *  The actual capture times are recorded per frame and define the frame delays on transcoding
+     */
+    public final void setFrameDelay( int frameDelay ) {
+        this.frameDelay = frameDelay;
+    }
+
+    public final int getFrames() {
+        return frames;
+    }
+
+    /** The number of frames to record. A negative value records until stop is called */
+    public final void setFrames( int frames ) {
+        this.frames = frames;
+    }
+
+    public final String getFileName() {
+        return fileName;
+    }
+
+    public final void setFileName( String fileName ) {
+        this.fileName = fileName;
+    }
+
+    public final int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** The size in bytes of the file regions that are mapped at once */
+    public final void setChunkSize( int chunkSize ) {
+        this.chunkSize = chunkSize;
+    }
+
+    public final FrameCapture getFrameCapture() {
+        return frameCapture;
+    }
+
+    /** Sets a capture that fills the frame buffer directly. By default the screenshot pixels are used */
+    public final void setFrameCapture( FrameCapture frameCapture ) {
+        this.frameCapture = frameCapture;
+    }
+
+    public final int getFrameNumber() {
+        return frameNumber;
+    }
+
+    public final void run( FFContext context ) {
+        if ( running ) {
+            return;
+        }
+
+        if ( fileName == null ) {
+            throw new FFInitException( "fileName is not defined" );
+        }
+
+        if ( area == null ) {
+            area = new Rectangle( 0, 0, context.getGraphics().getScreenWidth(), context.getGraphics().getScreenHeight() );
+        }
+        if ( frameDelay < 0 ) {
+            throw new FFInitException( "frameDelay must not be negative: " + frameDelay );
+        }
+
+        final int frameSize = area.width * area.height * FramePool.BYTES_PER_PIXEL;
+        if ( chunkSize < frameSize + FRAME_HEADER_SIZE + HEADER_SIZE ) {
+            chunkSize = frameSize + FRAME_HEADER_SIZE + HEADER_SIZE;
+        }
+        if ( frameCapture != null ) {
+            pixels = new byte[ frameSize ];
+        }
+
+        context.registerListener( PostRenderEvent.TYPE_KEY, this );
+
+        running = true;
+    }
+
+    public final void stop( FFContext context ) {
+        if ( !running ) {
+            return;
+        }
+
+        try {
+            close();
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to close raw frame file: " + fileName, e );
+        } finally {
+            running = false;
+            started = false;
+            frameNumber = 0;
+            lastFrameTime = -1;
+            pixels = null;
+            context.disposeListener( PostRenderEvent.TYPE_KEY, this );
+        }
+    }
+
+    @Override
+    public final void postRendering( FFContext context ) {
+        FFTimer timer = context.getTimer();
+        if ( !started ) {
+            if ( timer.getTime() < startTime ) {
+                return;
+            }
+            open();
+            recordFrame( context, timer.getTime() );
+            started = true;
+            return;
+        }
+
+        if ( frames >= 0 && frameNumber >= frames ) {
+            stop( context );
+            return;
+        }
+
+        if ( timer.getTime() - lastFrameTime >= frameDelay ) {
+            recordFrame( context, timer.getTime() );
+        }
+    }
+
+    private void open() {
+        try {
+            file = new RandomAccessFile( fileName, "rw" );
+            file.setLength( 0 );
+            channel = file.getChannel();
+            mappedPosition = 0;
+            mapped = channel.map( FileChannel.MapMode.READ_WRITE, mappedPosition, chunkSize );
+        } catch ( IOException e ) {
+            throw new FFInitException( "Failed to open raw frame file: " + fileName, e );
+        }
+
+        mapped.putInt( MAGIC );
+        mapped.putInt( VERSION );
+        mapped.putInt( area.width );
+        mapped.putInt( area.height );
+        mapped.putInt( FramePool.BYTES_PER_PIXEL );
+        mapped.putInt( frameDelay );
+    }
+
+    private void recordFrame( FFContext context, long time ) {
+        frameNumber++;
+        lastFrameTime = time;
+
+        final byte[] framePixels;
+        if ( frameCapture != null ) {
+            frameCapture.capture( context, area, pixels );
+            framePixels = pixels;
+        } else {
+            framePixels = context.getGraphics().getScreenshotPixels( area );
+        }
+
+        // keep room for the end marker after the frame
+        if ( mapped.remaining() < framePixels.length + 2 * FRAME_HEADER_SIZE ) {
+            remap();
+        }
+
+        mapped.putLong( time );
+        mapped.putInt( framePixels.length );
+        mapped.put( framePixels );
+    }
+
+    private void remap() {
+        try {
+            mappedPosition += mapped.position();
+            unmap( mapped );
+            mapped = channel.map( FileChannel.MapMode.READ_WRITE, mappedPosition, chunkSize );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Failed to map raw frame file: " + fileName, e );
+        }
+    }
+
+    private void close() throws IOException {
+        if ( file == null ) {
+            return;
+        }
+
+        try {
+            final long length = mappedPosition + mapped.position();
+            // end marker
+            mapped.putLong( 0 );
+            mapped.putInt( 0 );
+            mapped.force();
+            unmap( mapped );
+            mapped = null;
+            try {
+                channel.truncate( length + FRAME_HEADER_SIZE );
+            } catch ( IOException e ) {
+                // some platforms do not allow to truncate a mapped file; the end marker terminates the recording
+            }
+        } finally {
+            channel = null;
+            file.close();
+            file = null;
+        }
+    }
+
+    /** Releases the mapping of a chunk now instead of when the buffer is garbage collected, so old chunks do not keep
+     *  their address space and file pages. If the JVM does not allow it, the mapping is left to the garbage collector.
+     *  The buffer must not be used anymore afterwards.
+     */
+    static void unmap( MappedByteBuffer buffer ) {
+        try {
+            final Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            try {
+                // Java 9 and later
+                final Method invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+                final Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+                theUnsafe.setAccessible( true );
+                invokeCleaner.invoke( theUnsafe.get( null ), buffer );
+            } catch ( NoSuchMethodException e ) {
+                // Java 7 and 8
+                final Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+                cleanerMethod.setAccessible( true );
+                final Object cleaner = cleanerMethod.invoke( buffer );
+                if ( cleaner != null ) {
+                    cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+                }
+            }
+        } catch ( Exception e ) {
+            // left to the garbage collector
+        }
+    }
+
+}
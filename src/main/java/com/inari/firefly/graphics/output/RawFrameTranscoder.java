@@ -0,0 +1,154 @@
+package com.inari.firefly.graphics.output;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/** Offline tool that converts a file recorded by RawFrameRecorder into an animated GIF or a PNG sequence.
+ *  
+ *  Usage: RawFrameTranscoder gif &lt;rawFile&gt; &lt;gifFile&gt;
+ *         RawFrameTranscoder png &lt;rawFile&gt; &lt;filePrefix&gt;
+ */
+public final class RawFrameTranscoder {
+    
+    private final String rawFileName;
+    
+    private DataInputStream in;
+    private int width;
+    private int height;
+    private int frameDelay;
+    private byte[] pixels;
+    private long frameTime;
+
+    public RawFrameTranscoder( String rawFileName ) {
+        this.rawFileName = rawFileName;
+    }
+
+    /** Encodes all frames to an animated GIF with delta frames, on all available cores. The delay of a frame is
+     *  the time to the capture of the next frame, the last frame keeps the delay of its previous frame
+     */
+    public final int toGif( String gifFileName ) throws IOException {
+        open();
+        int count = 0;
+        int delay = frameDelay;
+        final ParallelGifSink sink = new ParallelGifSink( width, height, true, false );
+        try {
+            sink.start( gifFileName );
+            while ( nextFrame() ) {
+                final long nextFrameTime = peekFrameTime();
+                if ( nextFrameTime >= 0 ) {
+                    delay = (int) ( nextFrameTime - frameTime );
+                }
+                sink.addFrame( pixels, delay );
+                count++;
+            }
+        } finally {
+            sink.finish();
+            close();
+        }
+        return count;
+    }
+
+    /** Writes all frames to PNG files named filePrefix followed by the zero padded frame number */
+    public final int toPngSequence( String filePrefix ) throws IOException {
+        open();
+        int count = 0;
+        final PngWriter writer = new PngWriter( width, height );
+        try {
+            while ( nextFrame() ) {
+                writer.write( pixels, filePrefix + String.format( "%06d", count ) + ".png" );
+                count++;
+            }
+        } finally {
+            writer.close();
+            close();
+        }
+        return count;
+    }
+
+    public final long getFrameTime() {
+        return frameTime;
+    }
+
+    private void open() throws IOException {
+        in = new DataInputStream( new BufferedInputStream( new FileInputStream( rawFileName ), 1 << 16 ) );
+        if ( in.readInt() != RawFrameRecorder.MAGIC ) {
+            close();
+            throw new IOException( "Not a raw frame file: " + rawFileName );
+        }
+        final int version = in.readInt();
+        if ( version != RawFrameRecorder.VERSION ) {
+            close();
+            throw new IOException( "Unsupported raw frame file version: " + version );
+        }
+        width = in.readInt();
+        height = in.readInt();
+        final int bytesPerPixel = in.readInt();
+        if ( bytesPerPixel != FramePool.BYTES_PER_PIXEL ) {
+            close();
+            throw new IOException( "Unsupported bytes per pixel: " + bytesPerPixel );
+        }
+        frameDelay = in.readInt();
+        pixels = new byte[ width * height * bytesPerPixel ];
+    }
+
+    private boolean nextFrame() throws IOException {
+        try {
+            frameTime = in.readLong();
+            final int length = in.readInt();
+            if ( length == 0 ) {
+                return false;
+            }
+            if ( length != pixels.length ) {
+                throw new IOException( "Corrupt frame of length: " + length );
+            }
+            in.readFully( pixels );
+            return true;
+        } catch ( EOFException e ) {
+            return false;
+        }
+    }
+
+    /** Reads the capture time of the next frame without consuming it.
+     *  @return the capture time of the next frame or -1 at the end of the recording
+     */
+    private long peekFrameTime() throws IOException {
+        in.mark( RawFrameRecorder.FRAME_HEADER_SIZE );
+        try {
+            final long time = in.readLong();
+            final int length = in.readInt();
+            return ( length == 0 )? -1 : time;
+        } catch ( EOFException e ) {
+            return -1;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private void close() throws IOException {
+        if ( in != null ) {
+            in.close();
+            in = null;
+        }
+    }
+
+    public static void main( String[] args ) throws IOException {
+        if ( args.length != 3 ) {
+            System.out.println( "Usage: RawFrameTranscoder gif <rawFile> <gifFile>" );
+            System.out.println( "       RawFrameTranscoder png <rawFile> <filePrefix>" );
+            return;
+        }
+
+        final RawFrameTranscoder transcoder = new RawFrameTranscoder( args[ 1 ] );
+        final int frames;
+        if ( "png".equalsIgnoreCase( args[ 0 ] ) ) {
+            frames = transcoder.toPngSequence( args[ 2 ] );
+        } else {
+            frames = transcoder.toGif( args[ 2 ] );
+        }
+        System.out.println( "Transcoded " + frames + " frames" );
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.inari.firefly.graphics.output;
+
+import com.inari.commons.geom.Rectangle;
+import com.inari.firefly.FFInitException;
+import com.inari.firefly.system.FFContext;
+import com.inari.firefly.system.PostRenderEvent;
+import com.inari.firefly.system.PostRenderEventListener;
+import com.inari.firefly.system.external.FFTimer;
+
+/** Continuously keeps the last seconds of captured frames in a fixed size ring buffer. A call to dump writes
+ *  the buffered frames as animated GIF on a background thread while the capturing goes on.
+ *
+ *  The frames can be downscaled by an integer factor and reduced to the 6x7x6 color cube with one byte per pixel
+ *  to keep the memory of the ring buffer small. The memory used is twice the ring buffer size: a dump hands the
+ *  filled ring buffer to the writer thread and the capturing goes on in a preallocated spare ring buffer, so no
+ *  frame is copied on the render thread. The buffered history therefore starts anew after a dump.
+ */
+public final class ReplayCaptureOutput implements PostRenderEventListener {
+
+    private Rectangle area = null;
+    private int frameDelay = -1;
+    private int replayTime = 10000;
+    private int downscale = 1;
+    private boolean paletteReduced = false;
+    private FrameCapture frameCapture = null;
+
+    private boolean running = false;
+    private long lastFrameTime = -1;
+    private int width;
+    private int height;
+    private int bytesPerPixel;
+    private byte[] capturePixels;
+
+    private byte[][] ring;
+    private int head = 0;
+    private int count = 0;
+
+    private byte[][] spare;
+    private volatile boolean dumping = false;
+
+    public final Rectangle getArea() {
+        return area;
+    }
+
+    public final void setArea( Rectangle area ) {
+        this.area = area;
+    }
+
+    public final int getFrameDelay() {
+        return frameDelay;
+    }
+
+    public final void setFrameDelay( int frameDelay ) {
+        this.frameDelay = frameDelay;
+    }
+
+    public final int getReplayTime() {
+        return replayTime;
+    }
+
+    /** The time in milliseconds that is kept in the ring buffer */
+    public final void setReplayTime( int replayTime ) {
+        this.replayTime = replayTime;
+    }
+
+    public final int getDownscale() {
+        return downscale;
+    }
+
+    /** Keeps only every n-th pixel in both directions of the captured area */
+    public final void setDownscale( int downscale ) {
+        this.downscale = downscale;
+    }
+
+    public final boolean isPaletteReduced() {
+        return paletteReduced;
+    }
+
+    /** If true, the frames are kept as color cube indices with one byte per pixel instead of three */
+    public final void setPaletteReduced( boolean paletteReduced ) {
+        this.paletteReduced = paletteReduced;
+    }
+
+    public final FrameCapture getFrameCapture() {
+        return frameCapture;
+    }
+
+    public final void setFrameCapture( FrameCapture frameCapture ) {
+        this.frameCapture = frameCapture;
+    }
+
+    public final int getBufferedFrames() {
+        return count;
+    }
+
+    public final boolean isDumping() {
+        return dumping;
+    }
+
+    public final void run( FFContext context ) {
+        if ( running ) {
+            return;
+        }
+
+        if ( area == null ) {
+            area = new Rectangle( 0, 0, context.getGraphics().getScreenWidth(), context.getGraphics().getScreenHeight() );
+        }
+        if ( frameDelay < 0 ) {
+            frameDelay = 100;
+        }
+        if ( downscale < 1 ) {
+            downscale = 1;
+        }
+
+        final int capacity = replayTime / frameDelay;
+        if ( capacity < 1 ) {
+            throw new FFInitException( "replayTime must be at least one frameDelay" );
+        }
+
+        width = area.width / downscale;
+        height = area.height / downscale;
+        bytesPerPixel = ( paletteReduced )? 1 : FramePool.BYTES_PER_PIXEL;
+        if ( frameCapture != null ) {
+            capturePixels = new byte[ area.width * area.height * FramePool.BYTES_PER_PIXEL ];
+        }
+        if ( ring == null || ring.length != capacity || ring[ 0 ].length != width * height * bytesPerPixel ) {
+            ring = new byte[ capacity ][ width * height * bytesPerPixel ];
+            spare = new byte[ capacity ][ width * height * bytesPerPixel ];
+        }
+        head = 0;
+        count = 0;
+        lastFrameTime = -1;
+
+        context.registerListener( PostRenderEvent.TYPE_KEY, this );
+        running = true;
+    }
+
+    public final void stop( FFContext context ) {
+        if ( !running ) {
+            return;
+        }
+
+        running = false;
+        capturePixels = null;
+        context.disposeListener( PostRenderEvent.TYPE_KEY, this );
+    }
+
+    /** Writes the buffered frames, oldest first, to the given GIF file on a background thread.
+     *  @return false if there are no buffered frames or a previous dump is still running
+     */
+    public final boolean dump( final String fileName ) {
+        if ( dumping || count == 0 ) {
+            return false;
+        }
+
+        // the spare is free again since the previous dump is finished
+        final byte[][] snapshot = ring;
+        final int first = ( head - count + ring.length ) % ring.length;
+        final int frames = count;
+        ring = spare;
+        spare = snapshot;
+        head = 0;
+        count = 0;
+
+        dumping = true;
+        final int snapshotWidth = width;
+        final int snapshotHeight = height;
+        final boolean indexed = paletteReduced;
+        final int delay = frameDelay;
+        Thread thread = new Thread( new Runnable() {
+            @Override
+            public final void run() {
+                try {
+                    writeGif( fileName, snapshot, first, frames, snapshotWidth, snapshotHeight, indexed, delay );
+                } finally {
+                    dumping = false;
+                }
+            }
+        }, "ReplayCaptureOutput-Dump" );
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public final void postRendering( FFContext context ) {
+        FFTimer timer = context.getTimer();
+        if ( lastFrameTime >= 0 && timer.getTime() - lastFrameTime < frameDelay ) {
+            return;
+        }
+
+        lastFrameTime = timer.getTime();
+        final byte[] pixels;
+        if ( frameCapture != null ) {
+            frameCapture.capture( context, area, capturePixels );
+            pixels = capturePixels;
+        } else {
+            pixels = context.getGraphics().getScreenshotPixels( area );
+        }
+
+        reduce( pixels, ring[ head ] );
+        head = ( head + 1 ) % ring.length;
+        if ( count < ring.length ) {
+            count++;
+        }
+    }
+
+    private void reduce( byte[] pixels, byte[] target ) {
+        final int sourceLine = area.width * FramePool.BYTES_PER_PIXEL;
+        final int step = downscale * FramePool.BYTES_PER_PIXEL;
+        int t = 0;
+        for ( int y = 0; y < height; y++ ) {
+            int s = y * downscale * sourceLine;
+            for ( int x = 0; x < width; x++, s += step ) {
+                if ( paletteReduced ) {
+                    target[ t++ ] = (byte) GifFrameEncoder.cubeIndex( ( ( pixels[ s ] & 0xff ) << 16 ) | ( ( pixels[ s + 1 ] & 0xff ) << 8 ) | ( pixels[ s + 2 ] & 0xff ) );
+                } else {
+                    target[ t++ ] = pixels[ s ];
+                    target[ t++ ] = pixels[ s + 1 ];
+                    target[ t++ ] = pixels[ s + 2 ];
+                }
+            }
+        }
+    }
+
+    private static void writeGif( String fileName, byte[][] frames, int first, int frameCount, int width, int height, boolean indexed, int frameDelay ) {
+        final ParallelGifSink sink = new ParallelGifSink( width, height, true, indexed );
+        final int[] palette = GifFrameEncoder.fixedPaletteColors();
+        final byte[] rgb = ( indexed )? new byte[ width * height * FramePool.BYTES_PER_PIXEL ] : null;
+        sink.start( fileName );
+        try {
+            for ( int i = 0, index = first; i < frameCount; i++, index = ( index + 1 ) % frames.length ) {
+                final byte[] frame = frames[ index ];
+                if ( !indexed ) {
+                    sink.addFrame( frame, frameDelay );
+                    continue;
+                }
+
+                for ( int p = 0, t = 0; p < frame.length; p++ ) {
+                    final int color = palette[ frame[ p ] & 0xff ];
+                    rgb[ t++ ] = (byte) ( color >> 16 );
+                    rgb[ t++ ] = (byte) ( color >> 8 );
+                    rgb[ t++ ] = (byte) color;
+                }
+                sink.addFrame( rgb, frameDelay );
+            }
+        } finally {
+            sink.finish();
+        }
+    }
+
+}
@@ -0,0 +1,480 @@
+package com.inari.firefly.platformer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.inari.commons.lang.aspect.Aspects;
+import com.inari.firefly.FFInitException;
+import com.inari.firefly.component.attr.AttributeKey;
+import com.inari.firefly.component.attr.AttributeMap;
+import com.inari.firefly.control.Controller;
+import com.inari.firefly.controller.view.ViewDetailTiers;
+import com.inari.firefly.entity.EEntity;
+import com.inari.firefly.entity.EntityActivationEvent;
+import com.inari.firefly.entity.EntityActivationListener;
+import com.inari.firefly.entity.EntityController;
+import com.inari.firefly.entity.EntitySystem;
+import com.inari.firefly.graphics.ETransform;
+import com.inari.firefly.physics.collision.CollisionResolver;
+import com.inari.firefly.physics.collision.CollisionSystem;
+import com.inari.firefly.physics.collision.ECollision;
+import com.inari.firefly.physics.movement.EMovement;
+
+/** Runs the steps of a PFGravityController, a PFMoveController and a PFSimpleJumpController in one pass per entity.
+ *  The components of an entity are loaded once and the velocity is written back once at the end.
+ *
+ *  The referenced controllers keep their configuration but are not attached to the entities themselves. The steps
+ *  run in the order gravity, move, jump, the same as with the three controllers registered in this order.
+ *  Any of the three references is optional. Without a step rate the collision resolving stays with the
+ *  PFCollisionResolver of the collision system since it must run after the movement is applied.
+ *
+ *  With a step rate, the simulation runs at that fixed rate independent of the tick rate, using a PFFixedTimestep.
+ *  The controller then also moves the entities and resolves their collisions with the referenced
+ *  PFCollisionResolver after each step. The simulated position and velocity is kept per entity. The ETransform gets
+ *  the position interpolated between the last two steps for rendering, and the EMovement is left at zero velocity
+ *  so the movement system does not move the entity a second time. A velocity set from outside is taken over into
+ *  the simulation, converted from pixels per tick to pixels per step, and a position set from outside is taken
+ *  over as simulated position. The simulation state of an entity is reset when the entity is deactivated.
+ *
+ *  With interpolation, other systems see the interpolated position in the ETransform, which lags behind the
+ *  simulated position by up to one step. Without interpolation the ETransform gets the simulated position, at the
+ *  cost of a stepping motion if the step rate differs from the frame rate. Since the collisions are resolved by this
+ *  controller after each step, the referenced PFCollisionResolver must not also be triggered by the move events of
+ *  the movement system for the stepped entities. The zero velocity of the EMovement keeps the movement system from
+ *  moving them and from sending move events for them.
+ *
+ *  Entities off screen are updated by the ViewDetailTiers. An entity that is not due skips the update. With a step
+ *  rate it skips the controller steps of the tick but is still moved by its simulated velocity with collision
+ *  resolving, so it keeps its speed like with the velocity of the EMovement without a step rate.
+ */
+public final class PFCharacterController extends EntityController implements EntityActivationListener {
+
+    public static final AttributeKey<String> GRAVITY_CONTROLLER_NAME = new AttributeKey<String>( "gravityControllerName", String.class, PFCharacterController.class );
+    public static final AttributeKey<Integer> GRAVITY_CONTROLLER_ID = new AttributeKey<Integer>( "gravityControllerId", Integer.class, PFCharacterController.class );
+    public static final AttributeKey<String> MOVE_CONTROLLER_NAME = new AttributeKey<String>( "moveControllerName", String.class, PFCharacterController.class );
+    public static final AttributeKey<Integer> MOVE_CONTROLLER_ID = new AttributeKey<Integer>( "moveControllerId", Integer.class, PFCharacterController.class );
+    public static final AttributeKey<String> JUMP_CONTROLLER_NAME = new AttributeKey<String>( "jumpControllerName", String.class, PFCharacterController.class );
+    public static final AttributeKey<Integer> JUMP_CONTROLLER_ID = new AttributeKey<Integer>( "jumpControllerId", Integer.class, PFCharacterController.class );
+    public static final AttributeKey<String> COLLISION_RESOLVER_NAME = new AttributeKey<String>( "collisionResolverName", String.class, PFCharacterController.class );
+    public static final AttributeKey<Integer> COLLISION_RESOLVER_ID = new AttributeKey<Integer>( "collisionResolverId", Integer.class, PFCharacterController.class );
+    public static final AttributeKey<Integer> STEP_RATE = new AttributeKey<Integer>( "stepRate", Integer.class, PFCharacterController.class );
+    public static final AttributeKey<Boolean> INTERPOLATE = new AttributeKey<Boolean>( "interpolate", Boolean.class, PFCharacterController.class );
+    private static final AttributeKey<?>[] ATTRIBUTE_KEYS = new AttributeKey[] {
+        GRAVITY_CONTROLLER_ID,
+        MOVE_CONTROLLER_ID,
+        JUMP_CONTROLLER_ID,
+        COLLISION_RESOLVER_ID,
+        STEP_RATE,
+        INTERPOLATE
+    };
+    
+    private static final int INITIAL_STATE_CAPACITY = 16;
+
+    private EntitySystem entitySystem;
+    private CollisionSystem collisionSystem;
+    private PFDormantEntities dormantEntities;
+    private ViewDetailTiers detailTiers;
+    private PFInputSnapshot input;
+    private long inputTime = -1;
+    private boolean anyInput;
+    private final PFVelocity velocity = new PFVelocity();
+
+    private int gravityControllerId = -1;
+    private int moveControllerId = -1;
+    private int jumpControllerId = -1;
+    private int collisionResolverId = -1;
+
+    private boolean resolved = false;
+    private PFGravityController gravityController;
+    private PFMoveController moveController;
+    private PFSimpleJumpController jumpController;
+    private PFCollisionResolver collisionResolver;
+
+    private int stepRate = 0;
+    private PFFixedTimestep timestep;
+    private boolean interpolate = true;
+    /** derived from the shared input snapshot, keeps the typed buttons of ticks without a step for the next step */
+    private PFInputSnapshot stepInput;
+    private long tickTime = -1;
+    /** the simulated velocity in pixels per step, the simulated position and the position before the last step */
+    private float[] stepVelocityX = new float[ INITIAL_STATE_CAPACITY ];
+    private float[] stepVelocityY = new float[ INITIAL_STATE_CAPACITY ];
+    private float[] simulatedX = new float[ INITIAL_STATE_CAPACITY ];
+    private float[] simulatedY = new float[ INITIAL_STATE_CAPACITY ];
+    private float[] previousX = new float[ INITIAL_STATE_CAPACITY ];
+    private float[] previousY = new float[ INITIAL_STATE_CAPACITY ];
+    /** the last interpolated position, NaN for a new entity */
+    private float[] renderedX = newRenderedPosition( INITIAL_STATE_CAPACITY );
+    private float[] renderedY = newRenderedPosition( INITIAL_STATE_CAPACITY );
+
+    protected PFCharacterController( int id ) {
+        super( id );
+    }
+
+    @Override
+    public final void init() throws FFInitException {
+        super.init();
+
+        entitySystem = context.getSystem( EntitySystem.SYSTEM_KEY );
+        collisionSystem = context.getSystem( CollisionSystem.SYSTEM_KEY );
+        dormantEntities = context.getSystem( PFDormantEntities.SYSTEM_KEY );
+        detailTiers = context.getSystem( ViewDetailTiers.SYSTEM_KEY );
+        input = context.getSystem( PFInputSnapshot.SYSTEM_KEY );
+        
+        context.registerListener( EntityActivationEvent.TYPE_KEY, this );
+    }
+
+    @Override
+    public final void dispose() {
+        context.disposeListener( EntityActivationEvent.TYPE_KEY, this );
+        
+        super.dispose();
+    }
+
+    @Override
+    public final boolean match( Aspects aspects ) {
+        return true;
+    }
+
+    @Override
+    public final void entityActivated( int entityId, Aspects aspects ) {
+        // the simulation state is set up on the first update
+    }
+
+    /** Resets the simulation state of the deactivated entity, so a reused entity id starts at its own position at rest */
+    @Override
+    public final void entityDeactivated( int entityId, Aspects aspects ) {
+        if ( entityId >= stepVelocityX.length ) {
+            return;
+        }
+        
+        stepVelocityX[ entityId ] = 0f;
+        stepVelocityY[ entityId ] = 0f;
+        simulatedX[ entityId ] = 0f;
+        simulatedY[ entityId ] = 0f;
+        previousX[ entityId ] = 0f;
+        previousY[ entityId ] = 0f;
+        renderedX[ entityId ] = Float.NaN;
+        renderedY[ entityId ] = Float.NaN;
+    }
+
+    public final int getGravityControllerId() {
+        return gravityControllerId;
+    }
+
+    public final void setGravityControllerId( int gravityControllerId ) {
+        this.gravityControllerId = gravityControllerId;
+        resolved = false;
+    }
+
+    public final int getMoveControllerId() {
+        return moveControllerId;
+    }
+
+    public final void setMoveControllerId( int moveControllerId ) {
+        this.moveControllerId = moveControllerId;
+        resolved = false;
+    }
+
+    public final int getJumpControllerId() {
+        return jumpControllerId;
+    }
+
+    public final void setJumpControllerId( int jumpControllerId ) {
+        this.jumpControllerId = jumpControllerId;
+        resolved = false;
+    }
+
+    public final int getCollisionResolverId() {
+        return collisionResolverId;
+    }
+
+    /** The PFCollisionResolver that resolves the collisions after each step with a step rate */
+    public final void setCollisionResolverId( int collisionResolverId ) {
+        this.collisionResolverId = collisionResolverId;
+        resolved = false;
+    }
+
+    public final int getStepRate() {
+        return stepRate;
+    }
+
+    /** The number of simulation steps per second, or 0 to step once per tick */
+    public final void setStepRate( int stepRate ) {
+        this.stepRate = stepRate;
+        if ( stepRate > 0 ) {
+            timestep = new PFFixedTimestep( stepRate );
+        } else {
+            timestep = null;
+        }
+        stepInput = null;
+        tickTime = -1;
+    }
+
+    public final boolean isInterpolate() {
+        return interpolate;
+    }
+
+    /** With a step rate, if true the ETransform gets the position interpolated between the last two steps, otherwise
+     *  the simulated position. Default is true
+     */
+    public final void setInterpolate( boolean interpolate ) {
+        this.interpolate = interpolate;
+    }
+
+    /** The fixed timestep clock, or null if the controller steps once per tick */
+    public final PFFixedTimestep getTimestep() {
+        return timestep;
+    }
+
+    /** The simulated horizontal velocity of the entity in pixels per step, with a step rate */
+    public final float getStepVelocityX( int entityId ) {
+        return ( entityId < stepVelocityX.length )? stepVelocityX[ entityId ] : 0f;
+    }
+
+    /** The simulated vertical velocity of the entity in pixels per step, with a step rate */
+    public final float getStepVelocityY( int entityId ) {
+        return ( entityId < stepVelocityY.length )? stepVelocityY[ entityId ] : 0f;
+    }
+
+    @Override
+    protected final void update( int entityId ) {
+        if ( !resolved ) {
+            resolveControllers();
+        }
+        
+        final long time = context.getTimer().getTime();
+        if ( dormantEntities.isDormant( entityId ) && dormantEntities.stayDormant( entityId, hasInput( time ) ) ) {
+            return;
+        }
+        final int frames = PFLevelOfDetail.frames( detailTiers, entitySystem, entityId, time );
+        if ( frames < 0 || ( frames == 0 && timestep == null ) ) {
+            return;
+        }
+        final EEntity entity = entitySystem.getComponent( entityId, EEntity.TYPE_KEY );
+        final EMovement movement = entitySystem.getComponent( entityId, EMovement.TYPE_KEY );
+
+        if ( timestep != null ) {
+            updateFixed( entityId, entity, movement, frames > 0 );
+            // the EMovement is left at zero velocity and the simulated velocity tells whether the entity moves
+            dormantEntities.observe( entityId, entity, movement, stepVelocityX[ entityId ] != 0f || stepVelocityY[ entityId ] != 0f, time );
+            return;
+        }
+
+        final ETransform transform = ( moveController != null )? entitySystem.getComponent( entityId, ETransform.TYPE_KEY ) : null;
+        final float velocityX = movement.getVelocityX();
+        final float velocityY = movement.getVelocityY();
+        velocity.x = velocityX;
+        velocity.y = velocityY;
+
+        step( entityId, entity, transform, input.refresh(), time, context.getTimeElapsed() );
+
+        if ( velocity.x != velocityX || velocity.y != velocityY ) {
+            movement.setVelocity( velocity.x, velocity.y );
+        }
+        // observed with the velocity from the input of this tick
+        dormantEntities.observe( entityId, entity, movement, false, time );
+    }
+
+    /** @param due false if the entity is not due, it then only moves on with its simulated velocity */
+    private void updateFixed( final int entityId, final EEntity entity, final EMovement movement, final boolean due ) {
+        final long time = context.getTimer().getTime();
+        final long elapsed = context.getTimeElapsed();
+        final int steps = timestep.advance( time, elapsed );
+        if ( time != tickTime ) {
+            tickTime = time;
+            if ( stepInput == null ) {
+                stepInput = new PFInputSnapshot( input );
+            }
+            stepInput.refresh();
+            if ( steps == 0 ) {
+                stepInput.deferTyped();
+            }
+        }
+
+        if ( entityId >= stepVelocityX.length ) {
+            ensureStateCapacity( entityId );
+        }
+
+        final ETransform transform = entitySystem.getComponent( entityId, ETransform.TYPE_KEY );
+        // take over the initial position and positions set from outside
+        if ( transform.getXpos() != renderedX[ entityId ] || transform.getYpos() != renderedY[ entityId ] ) {
+            simulatedX[ entityId ] = previousX[ entityId ] = transform.getXpos();
+            simulatedY[ entityId ] = previousY[ entityId ] = transform.getYpos();
+        }
+        // take over velocities set from outside, the EMovement is left at zero velocity after each tick
+        final float ticksPerStep = ( elapsed > 0 )? timestep.getStepTime() / elapsed : 1f;
+        if ( movement.getVelocityX() != 0f ) {
+            stepVelocityX[ entityId ] = movement.getVelocityX() * ticksPerStep;
+        }
+        if ( movement.getVelocityY() != 0f ) {
+            stepVelocityY[ entityId ] = movement.getVelocityY() * ticksPerStep;
+        }
+
+        if ( steps > 0 ) {
+            simulate( entityId, entity, transform, movement, steps, due );
+        }
+        if ( movement.getVelocityX() != 0f || movement.getVelocityY() != 0f ) {
+            movement.setVelocity( 0f, 0f );
+        }
+
+        final float interpolation = ( interpolate )? timestep.getInterpolation() : 1f;
+        renderedX[ entityId ] = previousX[ entityId ] + ( simulatedX[ entityId ] - previousX[ entityId ] ) * interpolation;
+        renderedY[ entityId ] = previousY[ entityId ] + ( simulatedY[ entityId ] - previousY[ entityId ] ) * interpolation;
+        transform.setXpos( renderedX[ entityId ] );
+        transform.setYpos( renderedY[ entityId ] );
+        detailTiers.locate( entityId, transform );
+    }
+
+    /** Runs the steps of the tick for the entity. Each step updates the velocity if the entity is due, moves the entity
+     *  by it and resolves its collisions
+     */
+    private void simulate( final int entityId, final EEntity entity, final ETransform transform, final EMovement movement, final int steps, final boolean due ) {
+        velocity.x = stepVelocityX[ entityId ];
+        velocity.y = stepVelocityY[ entityId ];
+        float x = simulatedX[ entityId ];
+        float y = simulatedY[ entityId ];
+        long stepStart = timestep.getStepEndTime( -1 );
+        for ( int i = 0; i < steps; i++ ) {
+            previousX[ entityId ] = x;
+            previousY[ entityId ] = y;
+            transform.setXpos( x );
+            transform.setYpos( y );
+
+            final long stepEnd = timestep.getStepEndTime( i );
+            if ( due ) {
+                step( entityId, entity, transform, stepInput, stepEnd, stepEnd - stepStart );
+            }
+            stepStart = stepEnd;
+
+            x = transform.getXpos() + velocity.x;
+            y = transform.getYpos() + velocity.y;
+            if ( collisionResolver != null ) {
+                transform.setXpos( x );
+                transform.setYpos( y );
+                movement.setVelocity( velocity.x, velocity.y );
+                collisionSystem.updateContacts( entityId );
+                collisionResolver.resolve( entityId );
+                x = transform.getXpos();
+                y = transform.getYpos();
+                velocity.x = movement.getVelocityX();
+                velocity.y = movement.getVelocityY();
+            }
+        }
+
+        simulatedX[ entityId ] = x;
+        simulatedY[ entityId ] = y;
+        stepVelocityX[ entityId ] = velocity.x;
+        stepVelocityY[ entityId ] = velocity.y;
+    }
+
+    private void step( final int entityId, final EEntity entity, final ETransform transform, final PFInputSnapshot input, final long time, final long elapsed ) {
+        if ( gravityController != null ) {
+            gravityController.applyGravity( entity, velocity );
+        }
+        if ( moveController != null ) {
+            final ECollision collision = entitySystem.getComponent( entityId, ECollision.TYPE_KEY );
+            moveController.move( entityId, entity, transform, collision, velocity, input, time );
+        }
+        if ( jumpController != null ) {
+            jumpController.jump( entityId, entity, velocity, input, elapsed );
+        }
+    }
+
+    private void ensureStateCapacity( int entityId ) {
+        final int capacity = Math.max( entityId + 1, stepVelocityX.length * 2 );
+        stepVelocityX = Arrays.copyOf( stepVelocityX, capacity );
+        stepVelocityY = Arrays.copyOf( stepVelocityY, capacity );
+        simulatedX = Arrays.copyOf( simulatedX, capacity );
+        simulatedY = Arrays.copyOf( simulatedY, capacity );
+        previousX = Arrays.copyOf( previousX, capacity );
+        previousY = Arrays.copyOf( previousY, capacity );
+        renderedX = growRenderedPosition( renderedX, capacity );
+        renderedY = growRenderedPosition( renderedY, capacity );
+    }
+
+    private static float[] newRenderedPosition( int capacity ) {
+        final float[] result = new float[ capacity ];
+        Arrays.fill( result, Float.NaN );
+        return result;
+    }
+
+    private static float[] growRenderedPosition( float[] array, int capacity ) {
+        final int oldCapacity = array.length;
+        final float[] result = Arrays.copyOf( array, capacity );
+        Arrays.fill( result, oldCapacity, capacity, Float.NaN );
+        return result;
+    }
+
+    /** Returns true if any input of the move or jump controller is active within the current tick, evaluated once per tick */
+    private boolean hasInput( final long time ) {
+        if ( time != inputTime ) {
+            inputTime = time;
+            final PFInputSnapshot input = this.input.refresh();
+            anyInput = ( moveController != null && moveController.hasInput( input ) ) 
+                || ( jumpController != null && jumpController.hasInput( input ) );
+        }
+        return anyInput;
+    }
+
+    private void resolveControllers() {
+        gravityController = getController( gravityControllerId, PFGravityController.class );
+        moveController = getController( moveControllerId, PFMoveController.class );
+        jumpController = getController( jumpControllerId, PFSimpleJumpController.class );
+        collisionResolver = null;
+        if ( collisionResolverId >= 0 ) {
+            final CollisionResolver resolver = context.getSystemComponent( CollisionResolver.TYPE_KEY, collisionResolverId );
+            if ( !( resolver instanceof PFCollisionResolver ) ) {
+                throw new FFInitException( "No PFCollisionResolver found for id: " + collisionResolverId );
+            }
+            collisionResolver = (PFCollisionResolver) resolver;
+        }
+        resolved = true;
+    }
+
+    private <C extends Controller> C getController( int controllerId, Class<C> type ) {
+        if ( controllerId < 0 ) {
+            return null;
+        }
+
+        final Controller controller = context.getSystemComponent( Controller.TYPE_KEY, controllerId );
+        if ( !type.isInstance( controller ) ) {
+            throw new FFInitException( "No " + type.getSimpleName() + " found for id: " + controllerId );
+        }
+        return type.cast( controller );
+    }
+
+    @Override
+    public final Set<AttributeKey<?>> attributeKeys() {
+        Set<AttributeKey<?>> attributeKeys = super.attributeKeys();
+        attributeKeys.addAll( new HashSet<AttributeKey<?>>( Arrays.asList( ATTRIBUTE_KEYS ) ) );
+        return attributeKeys;
+    }
+
+    @Override
+    public final void fromAttributes( AttributeMap attributes ) {
+        super.fromAttributes( attributes );
+
+        gravityControllerId = attributes.getIdForName( GRAVITY_CONTROLLER_NAME, GRAVITY_CONTROLLER_ID, Controller.TYPE_KEY, gravityControllerId );
+        moveControllerId = attributes.getIdForName( MOVE_CONTROLLER_NAME, MOVE_CONTROLLER_ID, Controller.TYPE_KEY, moveControllerId );
+        jumpControllerId = attributes.getIdForName( JUMP_CONTROLLER_NAME, JUMP_CONTROLLER_ID, Controller.TYPE_KEY, jumpControllerId );
+        collisionResolverId = attributes.getIdForName( COLLISION_RESOLVER_NAME, COLLISION_RESOLVER_ID, CollisionResolver.TYPE_KEY, collisionResolverId );
+        resolved = false;
+        setStepRate( attributes.getValue( STEP_RATE, stepRate ) );
+        interpolate = attributes.getValue( INTERPOLATE, interpolate );
+    }
+
+    @Override
+    public final void toAttributes( AttributeMap attributes ) {
+        super.toAttributes( attributes );
+
+        attributes.put( GRAVITY_CONTROLLER_ID, gravityControllerId );
+        attributes.put( MOVE_CONTROLLER_ID, moveControllerId );
+        attributes.put( JUMP_CONTROLLER_ID, jumpControllerId );
+        attributes.put( COLLISION_RESOLVER_ID, collisionResolverId );
+        attributes.put( STEP_RATE, stepRate );
+        attributes.put( INTERPOLATE, interpolate );
+    }
+
+}
@@ -1,24 +1,57 @@
 package com.inari.firefly.platformer;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import com.inari.commons.geom.BitMask;
 import com.inari.commons.geom.Rectangle;
 import com.inari.firefly.FFInitException;
+import com.inari.firefly.component.attr.AttributeKey;
+import com.inari.firefly.component.attr.AttributeMap;
+import com.inari.firefly.controller.view.ViewDetailTiers;
 import com.inari.firefly.entity.EEntity;
+import com.inari.firefly.entity.EntitySystem;
 import com.inari.firefly.graphics.ETransform;
 import com.inari.firefly.physics.collision.CollisionResolver;
 import com.inari.firefly.physics.collision.CollisionSystem;
-import com.inari.firefly.physics.collision.ContactConstraint;
 import com.inari.firefly.physics.collision.ContactScan;
 import com.inari.firefly.physics.collision.Contacts;
 import com.inari.firefly.physics.collision.ECollision;
 import com.inari.firefly.physics.movement.EMovement;
 
+/** Collision resolver for platformer entities. Resolves the solid contacts of the contact scan of an entity by
+ *  moving the entity out of the solid area and sets the ON_GROUND state.
+ *
+ *  The contact scan only covers the area around the entity, so an entity that moves further than half its height
+ *  within one frame can tunnel through thin solid areas. With a PFSolidQuery set, such movements are swept against
+ *  the solid world geometry first. The entity is placed at the first position on its way that touches a solid area
+ *  and the contacts are resolved from there. After a vertical correction, the solid query is also used to test
+ *  the rows that came into the scan area, instead of scanning all contacts again. It must therefore cover all
+ *  solid areas of the solid contact constraint.
+ *
+ *  A resolving of a dormant entity of the PFDormantEntities wakes it, since it was moved.
+ */
 public final class PFCollisionResolver extends CollisionResolver {
     
+    public static final AttributeKey<PFTileGrid> TILE_GRID = new AttributeKey<PFTileGrid>( "tileGrid", PFTileGrid.class, PFCollisionResolver.class );
+    private static final AttributeKey<?>[] ATTRIBUTE_KEYS = new AttributeKey[] {
+        TILE_GRID
+    };
+    
     private CollisionSystem collisionSystem;
+    private EntitySystem entitySystem;
+    private PFContactScanIds contactScanIds;
     
-    private Rectangle vScan = new Rectangle( 0, 0, 1, 5 );
-    private Rectangle hScan = new Rectangle( 2, 0, 4, 1 );
+    private final PFScanMask scanMask = new PFScanMask();
+    private final Map<Integer, PFScanGeometry> geometries = new HashMap<Integer, PFScanGeometry>();
+    private PFScanGeometry[] entityGeometries = new PFScanGeometry[ 0 ];
+    private PFSolidQuery solidQuery;
+    private PFTileGrid tileGrid;
+    private PFDormantEntities dormantEntities;
+    private ViewDetailTiers detailTiers;
 
     protected PFCollisionResolver( int id ) {
         super( id );
@@ -31,18 +64,82 @@ public final class PFCollisionResolver extends CollisionResolver {
         super.init();
         
         collisionSystem = context.getSystem( CollisionSystem.SYSTEM_KEY );
+        entitySystem = context.getSystem( EntitySystem.SYSTEM_KEY );
+        contactScanIds = new PFContactScanIds( context );
+        dormantEntities = context.getSystem( PFDormantEntities.SYSTEM_KEY );
+        detailTiers = context.getSystem( ViewDetailTiers.SYSTEM_KEY );
+    }
+    
+    /** Resolves the platformer contact constraint ids by name again. Call this after the constraints were re-registered */
+    public final void invalidateContactConstraints() {
+        contactScanIds.invalidate();
+    }
+
+    public final PFSolidQuery getSolidQuery() {
+        return solidQuery;
+    }
+
+    /** Sets the solid world geometry to sweep fast movements against and to re-test the rows exposed by a vertical
+     *  correction, or null to not sweep and scan the contacts again after a vertical correction
+     */
+    public final void setSolidQuery( PFSolidQuery solidQuery ) {
+        this.solidQuery = solidQuery;
+    }
+
+    public final PFTileGrid getTileGrid() {
+        return tileGrid;
+    }
+
+    /** Sets a tile grid to look up ladders in, instead of the ladder contact scan. To also sweep against the
+     *  grid, set it as solid query too
+     */
+    public final void setTileGrid( PFTileGrid tileGrid ) {
+        this.tileGrid = tileGrid;
     }
 
     @Override
     public final void resolve( final int entityId ) {
-        final EEntity entity = context.getEntityComponent( entityId, EEntity.TYPE_KEY );
-        final ECollision collision = context.getEntityComponent( entityId, ECollision.TYPE_KEY );
-        final ETransform transform = context.getEntityComponent( entityId, ETransform.TYPE_KEY );
-        final EMovement movement = context.getEntityComponent( entityId, EMovement.TYPE_KEY );
+        if ( dormantEntities.isDormant( entityId ) ) {
+            // the entity was moved
+            dormantEntities.wake( entityId );
+        }
+        if ( PFLevelOfDetail.frames( detailTiers, entitySystem, entityId, context.getTimer().getTime() ) < 0 ) {
+            return;
+        }
+        
+        final EEntity entity = entitySystem.getComponent( entityId, EEntity.TYPE_KEY );
+        final ECollision collision = entitySystem.getComponent( entityId, ECollision.TYPE_KEY );
+        final ETransform transform = entitySystem.getComponent( entityId, ETransform.TYPE_KEY );
+        final EMovement movement = entitySystem.getComponent( entityId, EMovement.TYPE_KEY );
+        
+        resolve( entityId, entity, collision, transform, movement );
+        detailTiers.locate( entityId, transform );
+    }
+    
+    private void resolve( final int entityId, final EEntity entity, final ECollision collision, final ETransform transform, final EMovement movement ) {
+        if ( solidQuery != null && sweep( getGeometry( entityId, collision ), collision.getBounding(), transform, movement ) ) {
+            collisionSystem.updateContacts( entityId );
+        }
         
         final ContactScan contactScan = collision.getContactScan();
-        final Contacts solidContacts = contactScan.getContacts( context.getSystemComponentId( ContactConstraint.TYPE_KEY, PFContact.PLATFORMER_SOLID_CONTACT_SCAN ) );
-        final Contacts ladderContacts = contactScan.getContacts( context.getSystemComponentId( ContactConstraint.TYPE_KEY, PFContact.PLATFORMER_LADDER_CONTACT_SCAN ) );
+        final Contacts solidContacts = contactScan.getContacts( contactScanIds.solidScanId() );
+        if ( solidContacts == null ) {
+            return;
+        }
+        final boolean ladderContact;
+        final boolean ladderContactLost;
+        if ( tileGrid != null && collision.getBounding() != null ) {
+            final Rectangle bounding = collision.getBounding();
+            ladderContact = tileGrid.hasMaterial( 
+                (int) Math.floor( transform.getXpos() ) + bounding.x, (int) Math.floor( transform.getYpos() ) + bounding.y, 
+                bounding.width, bounding.height, PFContact.LADDER 
+            );
+            ladderContactLost = !ladderContact;
+        } else {
+            final Contacts ladderContacts = contactScan.getContacts( contactScanIds.ladderScanId() );
+            ladderContact = contactScan.hasContact( PFContact.LADDER );
+            ladderContactLost = ladderContacts != null && !ladderContacts.hasAnyContact();
+        }
         final BitMask intersectionMask = solidContacts.getIntersectionMask();
         final boolean groundContact = entity.hasAspect( PFState.ON_GROUND );
 
@@ -50,11 +147,11 @@ public final class PFCollisionResolver extends CollisionResolver {
         final float velocityX = movement.getVelocityX();
 
         entity.resetAspect( PFState.ON_GROUND );
-        if ( groundContact && contactScan.hasContact( PFContact.LADDER ) ) {
+        if ( groundContact && ladderContact ) {
             entity.setAspect( PFState.ON_GROUND );
         }
         
-        if ( ladderContacts != null && !ladderContacts.hasAnyContact() && entity.hasAspect( PFState.ON_LADDER ) ) {
+        if ( ladderContactLost && entity.hasAspect( PFState.ON_LADDER ) ) {
             entity.resetAspect( PFState.ON_LADDER );
             if ( entity.hasAspect( PFState.CLIMB_UP ) ) {
                 entity.setAspect( PFState.ON_GROUND );
@@ -63,53 +160,54 @@ public final class PFCollisionResolver extends CollisionResolver {
             }
         }
 
-        if ( intersectionMask.isEmpty() && !contactScan.hasContact( PFContact.LADDER ) ) {
+        if ( intersectionMask.isEmpty() && !ladderContact ) {
             return;
         }
 
+        final PFScanGeometry geometry = getGeometry( entityId, collision );
+        scanMask.set( intersectionMask, geometry.width, geometry.height );
+
         int ycorrection = 0;
         if ( velocityY >= 0 ) {
-            ycorrection = adjustToGround( intersectionMask, contactScan );
+            ycorrection = adjustToGround( geometry );
             if ( ycorrection != 0 && !( ycorrection > 0 && !groundContact ) ) {
                 entity.setAspect( PFState.ON_GROUND );
             } else {
                 ycorrection = 0;
             }
         } else if ( velocityY < 0 ) {
-            hScan.y = 0;
-            while( intersectionMask.hasIntersection( hScan ) ) {
-                ycorrection++;
-                hScan.y++;
-            }
+            ycorrection = scanMask.countSetRowsFromTop( geometry.headX1, geometry.headX2 );
         }
         
         if ( ycorrection != 0 ) {
+            final int scanY = (int) Math.floor( transform.getYpos() );
             if ( ycorrection < 0 ) { 
                 transform.setYpos( (float) Math.ceil( transform.getYpos() ) + ycorrection );
             } else {
                 transform.setYpos( (float) Math.floor( transform.getYpos() ) + ycorrection );
             }
             
-            collisionSystem.updateContacts( entityId );
+            final Rectangle bounding = collision.getBounding();
+            if ( solidQuery != null && bounding != null ) {
+                // the pixel rows the entity moved by, which differ from the correction if it was not on a whole 
+                // pixel, are shifted out of the mask. Only the rows exposed at the other end are tested again
+                final int newY = (int) Math.floor( transform.getYpos() );
+                scanMask.shiftRows( scanY - newY, solidQuery, (int) Math.floor( transform.getXpos() ) + bounding.x, newY + bounding.y );
+            } else {
+                collisionSystem.updateContacts( entityId );
+                scanMask.set( solidContacts.getIntersectionMask(), geometry.width, geometry.height );
+            }
         }
 
         int xcorrection = 0;
         if ( velocityX > 0 ) {
-            vScan.x = 7;
-            while( intersectionMask.hasIntersection( vScan ) ) {
-                xcorrection++;
-                vScan.x--;
-            }
+            xcorrection = scanMask.countSetColumnsFromRight( geometry.rightX, geometry.sideY1, geometry.sideY2 );
             
             if ( xcorrection != 0 ) {
                 transform.setXpos( (float) Math.ceil( transform.getXpos() ) - xcorrection );
             }
         } else if ( velocityX < 0 ) {
-            vScan.x = 0;
-            while( intersectionMask.hasIntersection( vScan ) ) {
-                xcorrection++;
-                vScan.x++;
-            }
+            xcorrection = scanMask.countSetColumnsFromLeft( geometry.sideY1, geometry.sideY2 );
             
             if ( xcorrection != 0 ) {
                 transform.setXpos( (float) Math.floor( transform.getXpos() ) + xcorrection );
@@ -117,17 +215,113 @@ public final class PFCollisionResolver extends CollisionResolver {
         }
     }
     
-    private int adjustToGround( final BitMask intersectionMask, final ContactScan contactScan ) {
-        int correction = 0;
-        final int halfHeight = 5;
-        for ( int i = 0; i < 10; i++ ) {
-            if ( intersectionMask.getBit( 3, 3 + i ) || intersectionMask.getBit( 4, 3 + i ) ) {
-                correction = -( halfHeight - i );
-                break;
+    /** Sweeps the movement of this frame against the solid geometry if it is longer than the contact scan covers.
+     *  The movement is split into sub steps of at most one pixel per axis and the bounding of the entity is tested at
+     *  each sub step position, so a diagonal movement only stops at geometry that is actually on its way. The area
+     *  covered from the start to the end position is tested first, if it has no solid pixel neither has the way.
+     *  @return true if the entity was placed back onto the first hit
+     */
+    private boolean sweep( final PFScanGeometry geometry, final Rectangle bounding, final ETransform transform, final EMovement movement ) {
+        final float velocityX = movement.getVelocityX();
+        final float velocityY = movement.getVelocityY();
+        if ( bounding == null || ( Math.abs( velocityY ) < geometry.halfHeight && Math.abs( velocityX ) < geometry.width / 2 ) ) {
+            return false;
+        }
+        
+        final float startX = transform.getXpos() - velocityX;
+        final float startY = transform.getYpos() - velocityY;
+        final int x = (int) Math.floor( startX ) + bounding.x;
+        final int y = (int) Math.floor( startY ) + bounding.y;
+        if ( solidQuery.hasSolid( x, y, bounding.width, bounding.height ) ) {
+            // already in contact at the start, the contact scan covers this
+            return false;
+        }
+        
+        final int endX = (int) Math.floor( transform.getXpos() ) + bounding.x;
+        final int endY = (int) Math.floor( transform.getYpos() ) + bounding.y;
+        final int x1 = Math.min( x, endX );
+        final int y1 = Math.min( y, endY );
+        if ( !solidQuery.hasSolid( x1, y1, Math.max( x, endX ) + bounding.width - x1, Math.max( y, endY ) + bounding.height - y1 ) ) {
+            return false;
+        }
+        
+        final int steps = (int) Math.ceil( Math.max( Math.abs( velocityX ), Math.abs( velocityY ) ) );
+        int lastX = x;
+        int lastY = y;
+        for ( int step = 1; step <= steps; step++ ) {
+            final float stepX = startX + velocityX * step / steps;
+            final float stepY = startY + velocityY * step / steps;
+            final int boundingX = (int) Math.floor( stepX ) + bounding.x;
+            final int boundingY = (int) Math.floor( stepY ) + bounding.y;
+            if ( boundingX == lastX && boundingY == lastY ) {
+                continue;
+            }
+            
+            if ( solidQuery.hasSolid( boundingX, boundingY, bounding.width, bounding.height ) ) {
+                transform.setXpos( stepX );
+                transform.setYpos( stepY );
+                return true;
+            }
+            lastX = boundingX;
+            lastY = boundingY;
+        }
+        return false;
+    }
+    
+    private int adjustToGround( final PFScanGeometry geometry ) {
+        final int groundRow = scanMask.firstSetRow( geometry.groundX1, geometry.groundX2, geometry.groundY );
+        if ( groundRow < 0 ) {
+            return 0;
+        }
+        
+        return -( geometry.halfHeight - ( groundRow - geometry.groundY ) );
+    }
+    
+    private PFScanGeometry getGeometry( final int entityId, final ECollision collision ) {
+        final Rectangle bounding = collision.getBounding();
+        if ( bounding == null ) {
+            return PFScanGeometry.DEFAULT;
+        }
+        
+        if ( entityId < entityGeometries.length ) {
+            final PFScanGeometry geometry = entityGeometries[ entityId ];
+            if ( geometry != null && geometry.matches( bounding.width, bounding.height ) ) {
+                return geometry;
             }
+        } else {
+            entityGeometries = Arrays.copyOf( entityGeometries, Math.max( entityId + 1, entityGeometries.length * 2 ) );
+        }
+        
+        // geometries are shared by all entities of the same shape
+        final Integer shapeKey = ( bounding.width << 16 ) | bounding.height;
+        PFScanGeometry geometry = geometries.get( shapeKey );
+        if ( geometry == null ) {
+            geometry = new PFScanGeometry( bounding.width, bounding.height );
+            geometries.put( shapeKey, geometry );
         }
+        entityGeometries[ entityId ] = geometry;
+        return geometry;
+    }
+
+    @Override
+    public final Set<AttributeKey<?>> attributeKeys() {
+        Set<AttributeKey<?>> attributeKeys = super.attributeKeys();
+        attributeKeys.addAll( new HashSet<AttributeKey<?>>( Arrays.asList( ATTRIBUTE_KEYS ) ) );
+        return attributeKeys;
+    }
+
+    @Override
+    public final void fromAttributes( AttributeMap attributes ) {
+        super.fromAttributes( attributes );
+        
+        tileGrid = attributes.getValue( TILE_GRID, tileGrid );
+    }
+
+    @Override
+    public final void toAttributes( AttributeMap attributes ) {
+        super.toAttributes( attributes );
         
-        return correction;
+        attributes.put( TILE_GRID, tileGrid );
     }
- 
+
 }
@@ -17,6 +17,20 @@ public enum PFContact implements Aspect {
         aspect = CollisionSystem.MATERIAL_ASPECT_GROUP.createAspect( name() );
     }
     
+    /** The PFContact of the given material aspect, or null if the material is not a platformer contact */
+    static PFContact of( Aspect material ) {
+        if ( material == null ) {
+            return null;
+        }
+        
+        for ( PFContact contact : values() ) {
+            if ( contact.aspectGroup() == material.aspectGroup() && contact.index() == material.index() ) {
+                return contact;
+            }
+        }
+        return null;
+    }
+    
     @Override
     public AspectGroup aspectGroup() {
         return aspect.aspectGroup();
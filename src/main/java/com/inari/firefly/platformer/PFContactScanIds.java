@@ -0,0 +1,44 @@
+package com.inari.firefly.platformer;
+
+import com.inari.firefly.physics.collision.ContactConstraint;
+import com.inari.firefly.system.FFContext;
+
+/** Holds the ids of the platformer contact constraints, resolved by name only once and again after invalidation */
+final class PFContactScanIds {
+    
+    private final FFContext context;
+    
+    private int solidScanId = -1;
+    private int ladderScanId = -1;
+    private boolean resolved = false;
+
+    PFContactScanIds( FFContext context ) {
+        this.context = context;
+    }
+    
+    final int solidScanId() {
+        if ( !resolved ) {
+            resolve();
+        }
+        return solidScanId;
+    }
+    
+    final int ladderScanId() {
+        if ( !resolved ) {
+            resolve();
+        }
+        return ladderScanId;
+    }
+    
+    /** The ids are resolved by name again on next access */
+    final void invalidate() {
+        resolved = false;
+    }
+    
+    private void resolve() {
+        solidScanId = context.getSystemComponentId( ContactConstraint.TYPE_KEY, PFContact.PLATFORMER_SOLID_CONTACT_SCAN );
+        ladderScanId = context.getSystemComponentId( ContactConstraint.TYPE_KEY, PFContact.PLATFORMER_LADDER_CONTACT_SCAN );
+        resolved = true;
+    }
+
+}
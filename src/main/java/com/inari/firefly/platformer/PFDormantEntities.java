@@ -0,0 +1,177 @@
+package com.inari.firefly.platformer;
+
+import java.util.Arrays;
+
+import com.inari.commons.lang.aspect.Aspects;
+import com.inari.firefly.entity.EEntity;
+import com.inari.firefly.entity.EntityActivationEvent;
+import com.inari.firefly.entity.EntityActivationListener;
+import com.inari.firefly.physics.movement.EMovement;
+import com.inari.firefly.system.FFContext;
+import com.inari.firefly.system.FFSystem;
+
+/** Keeps track of platformer entities that rest, so the platformer controllers and the PFCollisionResolver can
+ *  skip them. An entity rests in a frame if it has no velocity and is on ground. The controllers observe each entity
+ *  once per frame and an entity that rests for the given number of rest frames goes dormant. Its EEntity and EMovement
+ *  are kept, so the controllers check a dormant entity without component lookups. The velocity of an entity is never
+ *  changed here.
+ *
+ *  A dormant entity is woken by a velocity, by losing the ground, by input of a controller, by a collision resolving
+ *  or by an explicit call to wake. Changes that do not come from the entity itself, like a tile removed below it or a
+ *  position set from outside, need an explicit call to wake. A deactivated entity is woken and forgotten, so a reused
+ *  entity id starts awake.
+ *
+ *  A dormant entity still costs a bit test and two field reads per controller and frame, so the cost of the
+ *  controllers still grows with the total number of entities, only with a much smaller factor.
+ *
+ *  This is a system of the context, shared by all platformer controllers. The tracking is disabled as long as
+ *  the number of rest frames is 0.
+ */
+public final class PFDormantEntities implements FFSystem, EntityActivationListener {
+
+    public static final FFSystemTypeKey<PFDormantEntities> SYSTEM_KEY = FFSystemTypeKey.create( PFDormantEntities.class );
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int restFrames = 0;
+
+    private long[] dormant = new long[ INITIAL_CAPACITY >> 6 ];
+    private int[] restCount = new int[ INITIAL_CAPACITY ];
+    /** the frame time the entity was observed last, -1 for never */
+    private long[] observed = newObserved( INITIAL_CAPACITY );
+    /** the components of the dormant entities */
+    private EEntity[] entities = new EEntity[ INITIAL_CAPACITY ];
+    private EMovement[] movements = new EMovement[ INITIAL_CAPACITY ];
+
+    PFDormantEntities() {}
+
+    @Override
+    public final void init( FFContext context ) {
+        context.registerListener( EntityActivationEvent.TYPE_KEY, this );
+    }
+
+    @Override
+    public final FFSystemTypeKey<PFDormantEntities> systemTypeKey() {
+        return SYSTEM_KEY;
+    }
+
+    @Override
+    public final void dispose( FFContext context ) {
+        context.disposeListener( EntityActivationEvent.TYPE_KEY, this );
+        restFrames = 0;
+        dormant = new long[ INITIAL_CAPACITY >> 6 ];
+        restCount = new int[ INITIAL_CAPACITY ];
+        observed = newObserved( INITIAL_CAPACITY );
+        entities = new EEntity[ INITIAL_CAPACITY ];
+        movements = new EMovement[ INITIAL_CAPACITY ];
+    }
+
+    @Override
+    public final boolean match( Aspects aspects ) {
+        return true;
+    }
+
+    @Override
+    public final void entityActivated( int entityId, Aspects aspects ) {
+        // tracked from its first observation on
+    }
+
+    @Override
+    public final void entityDeactivated( int entityId, Aspects aspects ) {
+        wake( entityId );
+        if ( entityId < observed.length ) {
+            observed[ entityId ] = -1L;
+        }
+    }
+
+    public final int getRestFrames() {
+        return restFrames;
+    }
+
+    /** The number of frames an entity has to rest before it goes dormant, 0 to disable the tracking */
+    public final void setRestFrames( int restFrames ) {
+        this.restFrames = restFrames;
+        if ( restFrames <= 0 ) {
+            wakeAll();
+        }
+    }
+
+    public final boolean isEnabled() {
+        return restFrames > 0;
+    }
+
+    public final boolean isDormant( int entityId ) {
+        return ( entityId >> 6 ) < dormant.length && ( dormant[ entityId >> 6 ] & ( 1L << entityId ) ) != 0;
+    }
+
+    public final void wake( int entityId ) {
+        if ( entityId < restCount.length ) {
+            dormant[ entityId >> 6 ] &= ~( 1L << entityId );
+            restCount[ entityId ] = 0;
+            entities[ entityId ] = null;
+            movements[ entityId ] = null;
+        }
+    }
+
+    public final void wakeAll() {
+        Arrays.fill( dormant, 0L );
+        Arrays.fill( restCount, 0 );
+        Arrays.fill( entities, null );
+        Arrays.fill( movements, null );
+    }
+
+    /** Returns true if the dormant entity stays dormant, or wakes it if it has input, a velocity or lost the ground */
+    final boolean stayDormant( int entityId, boolean input ) {
+        final EMovement movement = movements[ entityId ];
+        if ( input || movement.getVelocityX() != 0f || movement.getVelocityY() != 0f || !entities[ entityId ].hasAspect( PFState.ON_GROUND ) ) {
+            wake( entityId );
+            return false;
+        }
+        return true;
+    }
+
+    /** Counts the frames the entity rests, once per frame time. The entity goes dormant after the rest frames
+     *  @param moving true if the entity moves by a velocity that is not in its EMovement
+     */
+    final void observe( int entityId, EEntity entity, EMovement movement, boolean moving, long time ) {
+        if ( restFrames <= 0 ) {
+            return;
+        }
+        if ( entityId >= restCount.length ) {
+            ensureCapacity( entityId );
+        }
+        if ( observed[ entityId ] == time ) {
+            return;
+        }
+
+        observed[ entityId ] = time;
+        if ( moving || movement.getVelocityX() != 0f || movement.getVelocityY() != 0f || !entity.hasAspect( PFState.ON_GROUND ) ) {
+            restCount[ entityId ] = 0;
+            return;
+        }
+        if ( ++restCount[ entityId ] < restFrames ) {
+            return;
+        }
+
+        dormant[ entityId >> 6 ] |= 1L << entityId;
+        entities[ entityId ] = entity;
+        movements[ entityId ] = movement;
+    }
+
+    private void ensureCapacity( int entityId ) {
+        final int capacity = Math.max( entityId + 1, restCount.length * 2 );
+        final int oldCapacity = observed.length;
+        dormant = Arrays.copyOf( dormant, ( capacity + 63 ) >> 6 );
+        restCount = Arrays.copyOf( restCount, capacity );
+        observed = Arrays.copyOf( observed, capacity );
+        Arrays.fill( observed, oldCapacity, capacity, -1L );
+        entities = Arrays.copyOf( entities, capacity );
+        movements = Arrays.copyOf( movements, capacity );
+    }
+
+    private static long[] newObserved( int capacity ) {
+        final long[] result = new long[ capacity ];
+        Arrays.fill( result, -1L );
+        return result;
+    }
+
+}
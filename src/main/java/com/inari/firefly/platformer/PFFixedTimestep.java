@@ -0,0 +1,97 @@
+package com.inari.firefly.platformer;
+
+/** Fixed timestep clock for the platformer simulation. Accumulates the elapsed time of each tick and tells how
+ *  many simulation steps of a fixed step time to run within the tick. The rest of the accumulated time, relative
+ *  to the step time, is the interpolation factor between the last two simulation steps.
+ *
+ *  The clock counts in nanoseconds, so step times that are not a whole number of milliseconds do not drift.
+ */
+public final class PFFixedTimestep {
+
+    public static final int DEFAULT_MAX_STEPS_PER_TICK = 5;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final long stepNanos;
+    private int maxStepsPerTick = DEFAULT_MAX_STEPS_PER_TICK;
+
+    private long tickTime = -1;
+    private long accumulator = 0;
+    private long time = 0;
+    private int steps = 0;
+
+    /** @param stepRate the number of simulation steps per second */
+    public PFFixedTimestep( int stepRate ) {
+        if ( stepRate <= 0 || stepRate > NANOS_PER_SECOND ) {
+            throw new IllegalArgumentException( "stepRate must be positive: " + stepRate );
+        }
+        stepNanos = NANOS_PER_SECOND / stepRate;
+    }
+
+    /** The time of one simulation step in milliseconds */
+    public final float getStepTime() {
+        return (float) stepNanos / NANOS_PER_MILLI;
+    }
+
+    public final int getMaxStepsPerTick() {
+        return maxStepsPerTick;
+    }
+
+    /** The maximal number of steps within one tick. Time beyond this is dropped, so a slow machine slows down
+     *  the simulation instead of falling further behind
+     */
+    public final void setMaxStepsPerTick( int maxStepsPerTick ) {
+        this.maxStepsPerTick = maxStepsPerTick;
+    }
+
+    /** The simulation time in milliseconds, advanced by the step time for each step */
+    public final long getTime() {
+        return time / NANOS_PER_MILLI;
+    }
+
+    /** The simulation time in milliseconds at the end of the given step of the current tick, from 0 to steps - 1.
+     *  The differences of these times add up to the simulated time, without rounding drift
+     */
+    public final long getStepEndTime( int step ) {
+        return ( time - ( steps - 1 - step ) * stepNanos ) / NANOS_PER_MILLI;
+    }
+
+    /** The number of steps to run within the current tick */
+    public final int getSteps() {
+        return steps;
+    }
+
+    /** The interpolation factor between the last and the next simulation step, from 0 to 1 */
+    public final float getInterpolation() {
+        return (float) accumulator / stepNanos;
+    }
+
+    /** Advances the clock once per tick. Further calls with the same tick time return the steps of the tick
+     *  @param elapsed the elapsed time of the tick in milliseconds
+     *  @return the number of steps to run within the tick
+     */
+    public final int advance( long tickTime, long elapsed ) {
+        if ( tickTime == this.tickTime ) {
+            return steps;
+        }
+
+        this.tickTime = tickTime;
+        accumulator += elapsed * NANOS_PER_MILLI;
+        steps = (int) Math.min( accumulator / stepNanos, maxStepsPerTick );
+        accumulator -= steps * stepNanos;
+        if ( accumulator >= stepNanos ) {
+            accumulator = accumulator % stepNanos;
+        }
+        time += steps * stepNanos;
+        return steps;
+    }
+
+    public final void reset() {
+        tickTime = -1;
+        accumulator = 0;
+        time = 0;
+        steps = 0;
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.inari.firefly.platformer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.inari.firefly.entity.EEntity;
+import com.inari.firefly.physics.movement.EMovement;
+
+/** The packed state of the batch mode of a PFGravityController. The components of an entity are looked up once,
+ *  when it is added on its first update, and the entity is evicted when it is deactivated, so a reused entity id
+ *  never refers to the components of a deleted entity. On each tick the vertical velocities and the ON_GROUND flags
+ *  of all entities are gathered into packed arrays and integrated in a branch free loop. Above the parallel threshold
+ *  gathering and integration are split into about one chunk per core. The results are written back on the update
+ *  thread, by the update of each entity, so entities that are not updated any more are never written. They are
+ *  removed from the batch on the next tick.
+ */
+final class PFGravityBatch {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MIN_CHUNK_SIZE = 1024;
+    private static ForkJoinPool pool;
+
+    private int size = 0;
+    private int[] entityIds = new int[ INITIAL_CAPACITY ];
+    private EEntity[] entities = new EEntity[ INITIAL_CAPACITY ];
+    private EMovement[] movements = new EMovement[ INITIAL_CAPACITY ];
+    /** the tick an entity was updated last */
+    private int[] updated = new int[ INITIAL_CAPACITY ];
+    private float[] velocityY = new float[ INITIAL_CAPACITY ];
+    private float[] newVelocityY = new float[ INITIAL_CAPACITY ];
+    /** 0 if the entity is on ground, 1 otherwise */
+    private float[] airborne = new float[ INITIAL_CAPACITY ];
+    /** index + 1 in the packed arrays by entity id, 0 if the entity is not in the batch */
+    private int[] indexOf = new int[ INITIAL_CAPACITY ];
+    private int tick = 0;
+
+    final int size() {
+        return size;
+    }
+
+    /** The index of the entity in the packed arrays, or -1 if it is not in the batch */
+    final int indexOf( int entityId ) {
+        return ( entityId < indexOf.length )? indexOf[ entityId ] - 1 : -1;
+    }
+
+    final EEntity entity( int index ) {
+        return entities[ index ];
+    }
+
+    final EMovement movement( int index ) {
+        return movements[ index ];
+    }
+
+    /** Adds an entity within the current tick. Its velocity is not integrated by this ticks integrate call
+     *  @return the index of the entity
+     */
+    final int add( int entityId, EEntity entity, EMovement movement ) {
+        if ( size == entityIds.length ) {
+            grow( size * 2 );
+        }
+        if ( entityId >= indexOf.length ) {
+            indexOf = Arrays.copyOf( indexOf, Math.max( entityId + 1, indexOf.length * 2 ) );
+        }
+
+        final int index = size++;
+        entityIds[ index ] = entityId;
+        entities[ index ] = entity;
+        movements[ index ] = movement;
+        updated[ index ] = tick;
+        velocityY[ index ] = Float.NaN;
+        indexOf[ entityId ] = index + 1;
+        return index;
+    }
+
+    /** Starts a new tick. Removes the entities that were not updated within the last tick, gathers the state of the
+     *  others and integrates their velocities
+     */
+    final void integrate( final float maxVelocity, final int parallelThreshold ) {
+        for ( int i = size - 1; i >= 0; i-- ) {
+            if ( updated[ i ] != tick ) {
+                remove( i );
+            }
+        }
+        tick++;
+
+        if ( size >= parallelThreshold && size >= 2 * MIN_CHUNK_SIZE ) {
+            getPool().invoke( new IntegrateTask( maxVelocity ) );
+        } else {
+            gather( 0, size );
+            integrate( 0, size, maxVelocity );
+        }
+    }
+
+    /** Removes the entity from the batch at once, for example on its deactivation */
+    final void evict( final int entityId ) {
+        final int index = indexOf( entityId );
+        if ( index >= 0 ) {
+            remove( index );
+        }
+    }
+
+    /** Marks the entity as updated within this tick, so it stays in the batch */
+    final void updated( final int index ) {
+        updated[ index ] = tick;
+    }
+
+    /** Returns true if the velocity of the entity was integrated within this tick and changed */
+    final boolean changed( final int index ) {
+        return newVelocityY[ index ] != velocityY[ index ] && !Float.isNaN( velocityY[ index ] );
+    }
+
+    final float newVelocityY( final int index ) {
+        return newVelocityY[ index ];
+    }
+
+    private void gather( final int from, final int to ) {
+        final EEntity[] entities = this.entities;
+        final EMovement[] movements = this.movements;
+        final float[] velocityY = this.velocityY;
+        final float[] airborne = this.airborne;
+        for ( int i = from; i < to; i++ ) {
+            velocityY[ i ] = movements[ i ].getVelocityY();
+            airborne[ i ] = ( entities[ i ].hasAspect( PFState.ON_GROUND ) )? 0f : 1f;
+        }
+    }
+
+    /** Same as PFGravityController.fall, with the ON_GROUND condition as factor instead of a branch */
+    private void integrate( final int from, final int to, final float maxVelocity ) {
+        final float[] velocityY = this.velocityY;
+        final float[] newVelocityY = this.newVelocityY;
+        final float[] airborne = this.airborne;
+        for ( int i = from; i < to; i++ ) {
+            final float velocity = velocityY[ i ];
+            newVelocityY[ i ] = airborne[ i ] * ( velocity + Math.abs( ( velocity / maxVelocity - 1f ) * 0.25f ) );
+        }
+    }
+
+    private void remove( final int index ) {
+        final int last = size - 1;
+        indexOf[ entityIds[ index ] ] = 0;
+        if ( index != last ) {
+            entityIds[ index ] = entityIds[ last ];
+            entities[ index ] = entities[ last ];
+            movements[ index ] = movements[ last ];
+            updated[ index ] = updated[ last ];
+            velocityY[ index ] = velocityY[ last ];
+            newVelocityY[ index ] = newVelocityY[ last ];
+            indexOf[ entityIds[ index ] ] = index + 1;
+        }
+        entities[ last ] = null;
+        movements[ last ] = null;
+        size = last;
+    }
+
+    private void grow( int capacity ) {
+        entityIds = Arrays.copyOf( entityIds, capacity );
+        entities = Arrays.copyOf( entities, capacity );
+        movements = Arrays.copyOf( movements, capacity );
+        updated = Arrays.copyOf( updated, capacity );
+        velocityY = Arrays.copyOf( velocityY, capacity );
+        newVelocityY = Arrays.copyOf( newVelocityY, capacity );
+        airborne = Arrays.copyOf( airborne, capacity );
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if ( pool == null ) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    private final class IntegrateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float maxVelocity;
+
+        IntegrateTask( float maxVelocity ) {
+            this.maxVelocity = maxVelocity;
+        }
+
+        @Override
+        protected final void compute() {
+            final int chunks = Math.min( getPool().getParallelism(), size / MIN_CHUNK_SIZE );
+            final ChunkTask[] tasks = new ChunkTask[ chunks ];
+            int from = 0;
+            for ( int chunk = 0; chunk < chunks; chunk++ ) {
+                final int to = ( chunk == chunks - 1 )? size : (int) ( (long) size * ( chunk + 1 ) / chunks );
+                tasks[ chunk ] = new ChunkTask( from, to, maxVelocity );
+                from = to;
+            }
+            invokeAll( tasks );
+        }
+    }
+
+    private final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final float maxVelocity;
+
+        ChunkTask( int from, int to, float maxVelocity ) {
+            this.from = from;
+            this.to = to;
+            this.maxVelocity = maxVelocity;
+        }
+
+        @Override
+        protected final void compute() {
+            gather( from, to );
+            integrate( from, to, maxVelocity );
+        }
+    }
+
+}
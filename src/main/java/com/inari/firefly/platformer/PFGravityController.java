@@ -4,25 +4,82 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.inari.commons.lang.aspect.Aspects;
+import com.inari.firefly.FFInitException;
 import com.inari.firefly.component.attr.AttributeKey;
 import com.inari.firefly.component.attr.AttributeMap;
+import com.inari.firefly.controller.view.ViewDetailTiers;
 import com.inari.firefly.entity.EEntity;
+import com.inari.firefly.entity.EntityActivationEvent;
+import com.inari.firefly.entity.EntityActivationListener;
 import com.inari.firefly.entity.EntityController;
+import com.inari.firefly.entity.EntitySystem;
 import com.inari.firefly.physics.movement.EMovement;
 
-public final class PFGravityController extends EntityController {
+public final class PFGravityController extends EntityController implements EntityActivationListener {
+    
+    /** Default number of entities from which on the batch integration is split across the available cores */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
     
     public static final AttributeKey<Float> MAX_VELOCITY  = new AttributeKey<Float>( "maxVelocity", Float.class, PFGravityController.class );
+    public static final AttributeKey<Boolean> BATCH  = new AttributeKey<Boolean>( "batch", Boolean.class, PFGravityController.class );
+    public static final AttributeKey<Integer> PARALLEL_THRESHOLD  = new AttributeKey<Integer>( "parallelThreshold", Integer.class, PFGravityController.class );
     private static final AttributeKey<?>[] ATTRIBUTE_KEYS = new AttributeKey[] {
         MAX_VELOCITY,
+        BATCH,
+        PARALLEL_THRESHOLD
     };
     
+    private EntitySystem entitySystem;
+    private PFDormantEntities dormantEntities;
+    private ViewDetailTiers detailTiers;
+    private final PFVelocity velocity = new PFVelocity();
+    
     private float maxVelocity;
+    private PFGravityBatch batch;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private long batchTime = -1;
    
     protected PFGravityController( int id ) {
         super( id );
     }
 
+    @Override
+    public final void init() throws FFInitException {
+        super.init();
+        
+        entitySystem = context.getSystem( EntitySystem.SYSTEM_KEY );
+        dormantEntities = context.getSystem( PFDormantEntities.SYSTEM_KEY );
+        detailTiers = context.getSystem( ViewDetailTiers.SYSTEM_KEY );
+        
+        context.registerListener( EntityActivationEvent.TYPE_KEY, this );
+    }
+
+    @Override
+    public final void dispose() {
+        context.disposeListener( EntityActivationEvent.TYPE_KEY, this );
+        
+        super.dispose();
+    }
+
+    @Override
+    public final boolean match( Aspects aspects ) {
+        return true;
+    }
+
+    @Override
+    public final void entityActivated( int entityId, Aspects aspects ) {
+        // added to the batch on its first update
+    }
+
+    /** Evicts the deactivated entity from the batch, so its components are not used for a reused entity id */
+    @Override
+    public final void entityDeactivated( int entityId, Aspects aspects ) {
+        if ( batch != null ) {
+            batch.evict( entityId );
+        }
+    }
+
     public final float getMaxVelocity() {
         return maxVelocity;
     }
@@ -31,18 +88,101 @@ public final class PFGravityController extends EntityController {
         this.maxVelocity = maxVelocity;
     }
 
+    public final boolean isBatch() {
+        return batch != null;
+    }
+
+    /** In batch mode the velocities of all entities are integrated at once on the first update of a tick, from packed
+     *  arrays, and each update of an entity only writes back its velocity if it changed. This is for many simple
+     *  entities like falling debris
+     */
+    public final void setBatch( boolean batch ) {
+        if ( batch == isBatch() ) {
+            return;
+        }
+        
+        this.batch = ( batch )? new PFGravityBatch() : null;
+        batchTime = -1;
+    }
+
+    public final int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /** The number of entities from which on the batch integration is split across the available cores */
+    public final void setParallelThreshold( int parallelThreshold ) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
     @Override
     protected final void update( int entityId ) {
-        final EEntity entity = context.getEntityComponent( entityId, EEntity.TYPE_KEY );
-        final EMovement movement = context.getEntityComponent( entityId, EMovement.TYPE_KEY );
+        if ( batch != null ) {
+            updateBatched( entityId );
+            return;
+        }
+        
+        if ( dormantEntities.isDormant( entityId ) && dormantEntities.stayDormant( entityId, false ) ) {
+            return;
+        }
+        final long time = context.getTimer().getTime();
+        if ( PFLevelOfDetail.frames( detailTiers, entitySystem, entityId, time ) <= 0 ) {
+            return;
+        }
+        final EEntity entity = entitySystem.getComponent( entityId, EEntity.TYPE_KEY );
+        final EMovement movement = entitySystem.getComponent( entityId, EMovement.TYPE_KEY );
+        
+        velocity.y = movement.getVelocityY();
+        applyGravity( entity, velocity );
+        movement.setVelocityY( velocity.y );
+        dormantEntities.observe( entityId, entity, movement, false, time );
+    }
+    
+    private void updateBatched( final int entityId ) {
+        final long time = context.getTimer().getTime();
+        if ( time != batchTime ) {
+            batchTime = time;
+            batch.integrate( maxVelocity, parallelThreshold );
+        }
+        if ( dormantEntities.isDormant( entityId ) && dormantEntities.stayDormant( entityId, false ) ) {
+            // not marked as updated, so it leaves the batch until it wakes
+            return;
+        }
+        final int frames = PFLevelOfDetail.frames( detailTiers, entitySystem, entityId, time );
+        if ( frames < 0 ) {
+            // frozen entities leave the batch too, so they are not integrated and do not fall
+            return;
+        }
+        
+        int index = batch.indexOf( entityId );
+        if ( frames == 0 ) {
+            // not due, stays in the batch but its velocity is not written back
+            if ( index >= 0 ) {
+                batch.updated( index );
+            }
+            return;
+        }
+        final boolean added = index < 0;
+        if ( added ) {
+            index = batch.add( entityId, entitySystem.getComponent( entityId, EEntity.TYPE_KEY ), entitySystem.getComponent( entityId, EMovement.TYPE_KEY ) );
+        }
+        batch.updated( index );
+        final EMovement movement = batch.movement( index );
         
-        if ( !entity.hasAspect( PFState.ON_GROUND ) ) {
-            float velocityY = movement.getVelocityY();
-            velocityY = velocityY + Math.abs( ( velocityY / maxVelocity - 1f ) * 0.25f );
-            movement.setVelocityY( velocityY );
-        } else {
-            movement.setVelocityY( 0f );
+        if ( added ) {
+            // not integrated with the others within this tick
+            movement.setVelocityY( fall( movement.getVelocityY(), batch.entity( index ).hasAspect( PFState.ON_GROUND ), maxVelocity ) );
+        } else if ( batch.changed( index ) ) {
+            movement.setVelocityY( batch.newVelocityY( index ) );
         }
+        dormantEntities.observe( entityId, batch.entity( index ), movement, false, time );
+    }
+    
+    final void applyGravity( final EEntity entity, final PFVelocity velocity ) {
+        velocity.y = fall( velocity.y, entity.hasAspect( PFState.ON_GROUND ), maxVelocity );
+    }
+    
+    static float fall( final float velocityY, final boolean onGround, final float maxVelocity ) {
+        return ( onGround )? 0f : velocityY + Math.abs( ( velocityY / maxVelocity - 1f ) * 0.25f );
     }
 
     @Override
@@ -57,6 +197,8 @@ public final class PFGravityController extends EntityController {
         super.fromAttributes( attributes );
         
         maxVelocity = attributes.getValue( MAX_VELOCITY, maxVelocity );
+        setBatch( attributes.getValue( BATCH, isBatch() ) );
+        parallelThreshold = attributes.getValue( PARALLEL_THRESHOLD, parallelThreshold );
     }
 
     @Override
@@ -64,6 +206,8 @@ public final class PFGravityController extends EntityController {
         super.toAttributes( attributes );
         
         attributes.put( MAX_VELOCITY, maxVelocity );
+        attributes.put( BATCH, isBatch() );
+        attributes.put( PARALLEL_THRESHOLD, parallelThreshold );
     }
 
 }
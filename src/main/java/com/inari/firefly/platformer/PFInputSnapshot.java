@@ -0,0 +1,154 @@
+package com.inari.firefly.platformer;
+
+import com.inari.firefly.system.FFContext;
+import com.inari.firefly.system.FFSystem;
+import com.inari.firefly.system.external.FFInput;
+import com.inari.firefly.system.external.FFInput.ButtonType;
+
+/** Reads the state of all buttons used by the platformer controllers once per tick into bit sets, so the
+ *  controllers query bits instead of the input backend for each entity, and all entities see the same input
+ *  within one tick. A button is watched from the first time it is queried or watched on. The typed state of a
+ *  button is only polled by the refresh of the shared snapshot, once per tick, so a backend that reports a typed
+ *  button only once does not lose it to a second poll.
+ *
+ *  The snapshot shared by all platformer controllers is a system of the context. A controller that does not step
+ *  on every tick uses a snapshot derived from the shared one, that copies the bits of the shared snapshot and
+ *  defers the typed buttons of ticks without a step to the next tick.
+ */
+final class PFInputSnapshot implements FFSystem {
+
+    static final FFSystemTypeKey<PFInputSnapshot> SYSTEM_KEY = FFSystemTypeKey.create( PFInputSnapshot.class );
+    private static final ButtonType[] BUTTON_TYPES = ButtonType.values();
+
+    private FFContext context;
+    private final PFInputSnapshot shared;
+    private final long[] watched = new long[ ( BUTTON_TYPES.length + 63 ) >> 6 ];
+    private final long[] pressed = new long[ watched.length ];
+    private final long[] typed = new long[ watched.length ];
+    private final long[] deferredTyped = new long[ watched.length ];
+    private long time = -1;
+
+    PFInputSnapshot() {
+        shared = null;
+    }
+
+    /** A snapshot derived from the shared snapshot, for a controller that does not step on every tick */
+    PFInputSnapshot( PFInputSnapshot shared ) {
+        this.shared = shared;
+    }
+
+    @Override
+    public final void init( FFContext context ) {
+        this.context = context;
+    }
+
+    @Override
+    public final FFSystemTypeKey<PFInputSnapshot> systemTypeKey() {
+        return SYSTEM_KEY;
+    }
+
+    @Override
+    public final void dispose( FFContext context ) {
+        time = -1;
+    }
+
+    /** Reads all watched buttons if this was not done yet within the current tick */
+    final PFInputSnapshot refresh() {
+        if ( shared != null ) {
+            return refreshFromShared();
+        }
+        
+        final long now = context.getTimer().getTime();
+        if ( now == time ) {
+            return this;
+        }
+
+        time = now;
+        final FFInput input = context.getInput();
+        for ( int word = 0; word < watched.length; word++ ) {
+            long pressedBits = 0L;
+            long typedBits = 0L;
+            long bits = watched[ word ];
+            while ( bits != 0L ) {
+                final int bit = Long.numberOfTrailingZeros( bits );
+                bits &= bits - 1;
+                final ButtonType buttonType = BUTTON_TYPES[ ( word << 6 ) + bit ];
+                if ( input.isPressed( buttonType ) ) {
+                    pressedBits |= 1L << bit;
+                }
+                if ( input.typed( buttonType ) ) {
+                    typedBits |= 1L << bit;
+                }
+            }
+            pressed[ word ] = pressedBits;
+            typed[ word ] = typedBits | deferredTyped[ word ];
+            deferredTyped[ word ] = 0L;
+        }
+        return this;
+    }
+
+    private PFInputSnapshot refreshFromShared() {
+        shared.refresh();
+        if ( shared.time == time ) {
+            return this;
+        }
+
+        time = shared.time;
+        for ( int word = 0; word < watched.length; word++ ) {
+            pressed[ word ] = shared.pressed[ word ];
+            typed[ word ] = shared.typed[ word ] | deferredTyped[ word ];
+            deferredTyped[ word ] = 0L;
+        }
+        return this;
+    }
+
+    /** Keeps the buttons typed within the current tick as typed for the next tick */
+    final void deferTyped() {
+        for ( int word = 0; word < watched.length; word++ ) {
+            deferredTyped[ word ] |= typed[ word ];
+        }
+    }
+
+    final boolean isPressed( ButtonType buttonType ) {
+        if ( buttonType == null ) {
+            return false;
+        }
+
+        watch( buttonType );
+        return ( pressed[ buttonType.ordinal() >> 6 ] & ( 1L << buttonType.ordinal() ) ) != 0;
+    }
+
+    final boolean typed( ButtonType buttonType ) {
+        if ( buttonType == null ) {
+            return false;
+        }
+
+        watch( buttonType );
+        return ( typed[ buttonType.ordinal() >> 6 ] & ( 1L << buttonType.ordinal() ) ) != 0;
+    }
+
+    /** Watches the button from now on. A controller watches its buttons on init, so they are typed from the first
+     *  tick on. The pressed state of a newly watched button is read directly for the current tick, its typed state
+     *  is polled from the next refresh on
+     */
+    final void watch( ButtonType buttonType ) {
+        if ( buttonType == null ) {
+            return;
+        }
+        
+        final int word = buttonType.ordinal() >> 6;
+        final long bit = 1L << buttonType.ordinal();
+        if ( ( watched[ word ] & bit ) != 0 ) {
+            return;
+        }
+
+        watched[ word ] |= bit;
+        if ( shared != null ) {
+            shared.watch( buttonType );
+            pressed[ word ] |= shared.pressed[ word ] & bit;
+        } else if ( context.getInput().isPressed( buttonType ) ) {
+            pressed[ word ] |= bit;
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.inari.firefly.platformer;
+
+import com.inari.firefly.controller.view.ViewDetailTiers;
+import com.inari.firefly.entity.EntitySystem;
+import com.inari.firefly.physics.movement.EMovement;
+
+/** Applies the ViewDetailTiers to the platformer controllers */
+final class PFLevelOfDetail {
+
+    private PFLevelOfDetail() {}
+
+    /** 1 if the entity is to be updated in the current frame, 0 if it is not due and -1 if it is frozen. Always 1 if
+     *  the tiers are disabled. Entities are stopped when they get frozen so they do not move on without collision
+     *  resolving. A velocity set from outside while an entity is frozen is applied without collision resolving
+     */
+    static int frames( final ViewDetailTiers detailTiers, final EntitySystem entitySystem, final int entityId, final long time ) {
+        final int frames = detailTiers.frames( entityId, time );
+        if ( frames < 0 && detailTiers.isNewlyFrozen( entityId ) ) {
+            final EMovement movement = entitySystem.getComponent( entityId, EMovement.TYPE_KEY );
+            if ( movement.getVelocityX() != 0f || movement.getVelocityY() != 0f ) {
+                movement.setVelocity( 0f, 0f );
+            }
+        }
+        return frames;
+    }
+
+}
@@ -5,27 +5,34 @@ import java.util.HashSet;
 import java.util.Set;
 
 import com.inari.commons.geom.Easing;
+import com.inari.commons.geom.Rectangle;
+import com.inari.commons.lang.aspect.Aspects;
 import com.inari.firefly.FFInitException;
 import com.inari.firefly.component.attr.AttributeKey;
 import com.inari.firefly.component.attr.AttributeMap;
+import com.inari.firefly.controller.view.ViewDetailTiers;
 import com.inari.firefly.entity.EEntity;
+import com.inari.firefly.entity.EntityActivationEvent;
+import com.inari.firefly.entity.EntityActivationListener;
 import com.inari.firefly.entity.EntityController;
 import com.inari.firefly.entity.EntitySystem;
 import com.inari.firefly.graphics.ETransform;
-import com.inari.firefly.physics.animation.Animation;
-import com.inari.firefly.physics.animation.AnimationSystem;
-import com.inari.firefly.physics.animation.easing.EasingAnimation;
-import com.inari.firefly.physics.animation.easing.EasingData;
 import com.inari.firefly.physics.collision.Contact;
-import com.inari.firefly.physics.collision.ContactConstraint;
 import com.inari.firefly.physics.collision.ContactScan;
 import com.inari.firefly.physics.collision.Contacts;
 import com.inari.firefly.physics.collision.ECollision;
 import com.inari.firefly.physics.movement.EMovement;
-import com.inari.firefly.system.external.FFInput;
 import com.inari.firefly.system.external.FFInput.ButtonType;
 
-public final class PFMoveController extends EntityController {
+/** Move controller for platformer entities. The walk acceleration curve is sampled from the easing type into a
+ *  lookup table and evaluated per entity from the time the entity started to walk, so any number of entities
+ *  accelerate independently. The walk state of an entity is reset when the entity is deactivated, so a reused
+ *  entity id does not continue the acceleration of a deleted entity.
+ */
+public final class PFMoveController extends EntityController implements EntityActivationListener {
+    
+    private static final int EASING_SAMPLES = 64;
+    private static final int INITIAL_STATE_CAPACITY = 16;
     
     public static final AttributeKey<ButtonType> GO_LEFT_BUTTON_TYPE = new AttributeKey<ButtonType>( "goLeftButtonType", ButtonType.class, PFGravityController.class );
     public static final AttributeKey<ButtonType> GO_RIGHT_BUTTON_TYPE = new AttributeKey<ButtonType>( "goRightButtonType", ButtonType.class, PFGravityController.class );
@@ -35,6 +42,7 @@ public final class PFMoveController extends EntityController {
     public static final AttributeKey<ButtonType> CLIMB_UP_BUTTON_TYPE = new AttributeKey<ButtonType>( "climbUpButtonType", ButtonType.class, PFGravityController.class );
     public static final AttributeKey<ButtonType> CLIMB_DOWN_BUTTON_TYPE = new AttributeKey<ButtonType>( "climbDownButtonType", ButtonType.class, PFGravityController.class );
     public static final AttributeKey<Float> CLIMB_VELOCITY = new AttributeKey<Float>( "climbVelocity", Float.class, PFGravityController.class );
+    public static final AttributeKey<PFTileGrid> TILE_GRID = new AttributeKey<PFTileGrid>( "tileGrid", PFTileGrid.class, PFMoveController.class );
     private static final AttributeKey<?>[] ATTRIBUTE_KEYS = new AttributeKey[] {
         GO_LEFT_BUTTON_TYPE,
         GO_RIGHT_BUTTON_TYPE,
@@ -43,11 +51,14 @@ public final class PFMoveController extends EntityController {
         TIME_TO_MAX,
         CLIMB_UP_BUTTON_TYPE,
         CLIMB_DOWN_BUTTON_TYPE,
-        CLIMB_VELOCITY
+        CLIMB_VELOCITY,
+        TILE_GRID
     };
     
-    private AnimationSystem animationSystem;
     private EntitySystem entitySystem;
+    private PFDormantEntities dormantEntities;
+    private ViewDetailTiers detailTiers;
+    private PFContactScanIds contactScanIds;
     
     private ButtonType goLeftButtonType;
     private ButtonType goRightButtonType;
@@ -58,7 +69,17 @@ public final class PFMoveController extends EntityController {
     private ButtonType climbDownButtonType;
     private float climbVelocity;
 
-    private int startWalkAnimId;
+    private PFTileGrid tileGrid;
+    private int ladderX;
+    private int ladderOverlap;
+    
+    private final float[] easingTable = new float[ EASING_SAMPLES + 1 ];
+    private long[] walkStartTime = newWalkStartTime( INITIAL_STATE_CAPACITY );
+    private int activeEntities = 0;
+    private PFInputSnapshot input;
+    private long inputTime = -1;
+    private boolean anyInput;
+    private final PFVelocity velocity = new PFVelocity();
 
     protected PFMoveController( int id ) {
         super( id );
@@ -69,23 +90,76 @@ public final class PFMoveController extends EntityController {
     public final void init() throws FFInitException {
         super.init();
         
-        animationSystem = context.getSystem( AnimationSystem.SYSTEM_KEY );
         entitySystem = context.getSystem( EntitySystem.SYSTEM_KEY );
+        dormantEntities = context.getSystem( PFDormantEntities.SYSTEM_KEY );
+        detailTiers = context.getSystem( ViewDetailTiers.SYSTEM_KEY );
+        input = context.getSystem( PFInputSnapshot.SYSTEM_KEY );
+        input.watch( goLeftButtonType );
+        input.watch( goRightButtonType );
+        input.watch( climbUpButtonType );
+        input.watch( climbDownButtonType );
+        contactScanIds = new PFContactScanIds( context );
+        updateEasingTable();
         
-        startWalkAnimId = context.getComponentBuilder( Animation.TYPE_KEY, EasingAnimation.class )
-            .set( EasingAnimation.NAME, "SimplePlatformerMoveControllerAnimation" )
-            .set( EasingAnimation.LOOPING, false )
-            .set( EasingAnimation.EASING_DATA, new EasingData( Easing.Type.LINEAR, 0f, maxVelocity, timeToMax ) )
-        .build();
+        context.registerListener( EntityActivationEvent.TYPE_KEY, this );
     }
 
     @Override
     public final void dispose() {
-        context.deleteSystemComponent( Animation.TYPE_KEY, startWalkAnimId );
+        context.disposeListener( EntityActivationEvent.TYPE_KEY, this );
         
         super.dispose();
     }
 
+    @Override
+    public final boolean match( Aspects aspects ) {
+        return true;
+    }
+
+    @Override
+    public final void entityActivated( int entityId, Aspects aspects ) {
+        activeEntities++;
+    }
+
+    /** Resets the walk state of the deactivated entity and shrinks the walk state when the last entity is deactivated */
+    @Override
+    public final void entityDeactivated( int entityId, Aspects aspects ) {
+        resetWalkState( entityId );
+        // entities that were activated before this controller are not counted
+        if ( activeEntities > 0 && --activeEntities == 0 ) {
+            trimWalkState( 0 );
+        }
+    }
+
+    /** Resolves the platformer contact constraint ids by name again. Call this after the constraints were re-registered */
+    public final void invalidateContactConstraints() {
+        contactScanIds.invalidate();
+    }
+
+    /** Resets the walk acceleration state of the given entity. This is done on deactivation of the entity already */
+    public final void resetWalkState( int entityId ) {
+        if ( entityId < walkStartTime.length ) {
+            walkStartTime[ entityId ] = -1;
+        }
+    }
+
+    /** Shrinks the walk state array to the given number of entities, for example after a level with many entities was disposed */
+    public final void trimWalkState( int entityCapacity ) {
+        final int capacity = Math.max( entityCapacity, INITIAL_STATE_CAPACITY );
+        if ( capacity < walkStartTime.length ) {
+            walkStartTime = Arrays.copyOf( walkStartTime, capacity );
+        }
+    }
+
+    public final PFTileGrid getTileGrid() {
+        return tileGrid;
+    }
+
+    /** Sets a tile grid to look up ladders in, instead of the ladder contact scan */
+    public final void setTileGrid( PFTileGrid tileGrid ) {
+        this.tileGrid = tileGrid;
+    }
+
     public final ButtonType getGoLeftButtonType() {
         return goLeftButtonType;
     }
@@ -108,6 +182,7 @@ public final class PFMoveController extends EntityController {
 
     public final void setEasingType( Easing.Type easingType ) {
         this.easingType = easingType;
+        updateEasingTable();
     }
 
     public final float getMaxVelocity() {
@@ -116,6 +191,7 @@ public final class PFMoveController extends EntityController {
 
     public final void setMaxVelocity( float maxVelocity ) {
         this.maxVelocity = maxVelocity;
+        updateEasingTable();
     }
 
     public final long getTimeToMax() {
@@ -152,38 +228,77 @@ public final class PFMoveController extends EntityController {
 
     @Override
     protected final void update( int entityId ) {
-        final FFInput input = context.getInput();
-        final ETransform transform = entitySystem.getComponent( entityId, ETransform.TYPE_KEY );
-        final EMovement movement = entitySystem.getComponent( entityId, EMovement.TYPE_KEY );
+        final long time = context.getTimer().getTime();
+        if ( dormantEntities.isDormant( entityId ) && dormantEntities.stayDormant( entityId, hasInput( time ) ) ) {
+            return;
+        }
+        if ( PFLevelOfDetail.frames( detailTiers, entitySystem, entityId, time ) <= 0 ) {
+            return;
+        }
         final EEntity entity = entitySystem.getComponent( entityId, EEntity.TYPE_KEY );
+        final EMovement movement = entitySystem.getComponent( entityId, EMovement.TYPE_KEY );
+        
+        final PFInputSnapshot input = this.input.refresh();
+        final ETransform transform = entitySystem.getComponent( entityId, ETransform.TYPE_KEY );
         final ECollision collision = entitySystem.getComponent( entityId, ECollision.TYPE_KEY );
-        final ContactScan contactScan = collision.getContactScan();
         
-        float xVelocity = movement.getVelocityX();
-        float yVelocity = movement.getVelocityY();
+        velocity.x = movement.getVelocityX();
+        velocity.y = movement.getVelocityY();
+        move( entityId, entity, transform, collision, velocity, input, time );
+        movement.setVelocity( velocity.x, velocity.y );
+        detailTiers.locate( entityId, transform );
+        // observed with the velocity from the input of this tick
+        dormantEntities.observe( entityId, entity, movement, false, time );
+    }
+
+    /** Returns true if any input of the controller is active within the current tick, evaluated once per tick */
+    private boolean hasInput( final long time ) {
+        if ( time != inputTime ) {
+            inputTime = time;
+            anyInput = hasInput( input.refresh() );
+        }
+        return anyInput;
+    }
+    
+    /** Returns true if any of the move or climb buttons is pressed */
+    final boolean hasInput( final PFInputSnapshot input ) {
+        return input.isPressed( goLeftButtonType ) || input.isPressed( goRightButtonType ) 
+            || input.isPressed( climbUpButtonType ) || input.isPressed( climbDownButtonType );
+    }
+    
+    final void move( 
+            final int entityId, final EEntity entity, final ETransform transform, final ECollision collision, 
+            final PFVelocity velocity, final PFInputSnapshot input, final long time ) {
+        
+        float xVelocity = velocity.x;
+        float yVelocity = velocity.y;
+        
+        if ( entityId >= walkStartTime.length ) {
+            ensureStateCapacity( entityId );
+        }
 
         // walking right/left
         if ( input.isPressed( goRightButtonType ) && xVelocity >= 0f ) {
             entity.resetAspect( PFState.WALK_LEFT );
             entity.setAspect( PFState.WALK_RIGHT );
-            if ( xVelocity == 0f && !animationSystem.isActive( startWalkAnimId ) ) {
-                context.activateSystemComponent( Animation.TYPE_KEY, startWalkAnimId );
+            if ( xVelocity == 0f && walkStartTime[ entityId ] < 0 ) {
+                walkStartTime[ entityId ] = time;
             }
             
-           if ( animationSystem.isActive( startWalkAnimId ) ) {
-                xVelocity = animationSystem.getValue( startWalkAnimId, entityId, xVelocity );
-           } else if ( xVelocity < maxVelocity ) {
-               xVelocity = maxVelocity;
-           }
+            if ( walkStartTime[ entityId ] >= 0 ) {
+                xVelocity = walkVelocity( entityId, time );
+            } else if ( xVelocity < maxVelocity ) {
+                xVelocity = maxVelocity;
+            }
         } else if ( input.isPressed( goLeftButtonType ) && xVelocity <= 0f ) {
             entity.setAspect( PFState.WALK_LEFT );
             entity.resetAspect( PFState.WALK_RIGHT );
-            if ( xVelocity == 0f && !animationSystem.isActive( startWalkAnimId ) ) {
-                context.activateSystemComponent( Animation.TYPE_KEY, startWalkAnimId );
+            if ( xVelocity == 0f && walkStartTime[ entityId ] < 0 ) {
+                walkStartTime[ entityId ] = time;
             }
             
-            if ( animationSystem.isActive( startWalkAnimId ) ) {
-                xVelocity = -animationSystem.getValue( startWalkAnimId, entityId, xVelocity );
+            if ( walkStartTime[ entityId ] >= 0 ) {
+                xVelocity = -walkVelocity( entityId, time );
             } else if ( xVelocity > -maxVelocity ) {
                 xVelocity = -maxVelocity;
             }
@@ -194,32 +309,97 @@ public final class PFMoveController extends EntityController {
                 xVelocity = ( xVelocity > 0f )? xVelocity - 0.3f : xVelocity + 0.3f;
             } else {
                 xVelocity = 0f;
-                context.getSystemComponent( Animation.TYPE_KEY, startWalkAnimId ).reset();
+                walkStartTime[ entityId ] = -1;
             }
         }
 
-        final Contacts ladderContacts = contactScan.getContacts( context.getSystemComponentId( ContactConstraint.TYPE_KEY, PFContact.PLATFORMER_LADDER_CONTACT_SCAN ) );
-        final boolean hasLadderContact = ladderContacts != null && ladderContacts.hasAnyContact();
-        if ( input.isPressed( climbUpButtonType ) && hasLadderContact ) {
-            final Contact contact = ladderContacts.getFirstContactOfMaterial( PFContact.LADDER );
-            if ( contact.intersectionBounds().width > 3 ) {
-                adjustToLadder( transform, entity, contact );
+        final boolean climbUp = input.isPressed( climbUpButtonType );
+        final boolean climbDown = !climbUp && input.isPressed( climbDownButtonType );
+        if ( ( climbUp || climbDown ) && findLadder( transform, collision ) ) {
+            if ( climbDown ) {
+                adjustToLadder( transform, entity );
+                yVelocity = climbVelocity;
+            } else if ( ladderOverlap > 3 ) {
+                adjustToLadder( transform, entity );
                 yVelocity = -climbVelocity;
             }
-        } else if ( input.isPressed( climbDownButtonType ) && hasLadderContact ) {
-            final Contact contact = ladderContacts.getFirstContactOfMaterial( PFContact.LADDER );
-            adjustToLadder( transform, entity, contact );
-            yVelocity = climbVelocity;
         } else {
             //yVelocity = 0;
             entity.resetAspect( PFState.CLIMB_UP );
         }
         
-        movement.setVelocity( xVelocity, yVelocity );
+        velocity.x = xVelocity;
+        velocity.y = yVelocity;
+    }
+
+    /** The velocity on the acceleration curve for the time since the entity started to walk. Ends the acceleration
+     *  after timeToMax
+     */
+    private float walkVelocity( final int entityId, final long time ) {
+        final long elapsed = time - walkStartTime[ entityId ];
+        if ( elapsed >= timeToMax ) {
+            walkStartTime[ entityId ] = -1;
+            return maxVelocity;
+        }
+        
+        final float position = (float) elapsed * EASING_SAMPLES / timeToMax;
+        final int index = (int) position;
+        final float fraction = position - index;
+        return easingTable[ index ] + ( easingTable[ index + 1 ] - easingTable[ index ] ) * fraction;
+    }
+    
+    private void updateEasingTable() {
+        final Easing.Type type = ( easingType != null )? easingType : Easing.Type.LINEAR;
+        for ( int i = 0; i <= EASING_SAMPLES; i++ ) {
+            easingTable[ i ] = type.calc( i, 0f, maxVelocity, EASING_SAMPLES );
+        }
+    }
+    
+    private void ensureStateCapacity( int entityId ) {
+        final int capacity = Math.max( entityId + 1, walkStartTime.length * 2 );
+        final int oldCapacity = walkStartTime.length;
+        walkStartTime = Arrays.copyOf( walkStartTime, capacity );
+        Arrays.fill( walkStartTime, oldCapacity, capacity, -1 );
+    }
+    
+    private static long[] newWalkStartTime( int capacity ) {
+        final long[] result = new long[ capacity ];
+        Arrays.fill( result, -1 );
+        return result;
+    }
+
+    /** Looks for a ladder the entity is in contact with, in the tile grid if set, or in the ladder contact scan.
+     *  Sets ladderX and ladderOverlap for the found ladder
+     */
+    private boolean findLadder( final ETransform transform, final ECollision collision ) {
+        final Rectangle bounding = collision.getBounding();
+        if ( tileGrid != null && bounding != null ) {
+            final int x = (int) Math.floor( transform.getXpos() ) + bounding.x;
+            final int y = (int) Math.floor( transform.getYpos() ) + bounding.y;
+            final int cell = tileGrid.firstCell( x, y, bounding.width, bounding.height, PFTileGrid.materialFlag( PFContact.LADDER ) );
+            if ( cell < 0 ) {
+                return false;
+            }
+            
+            ladderX = tileGrid.cellWorldX( cell );
+            ladderOverlap = Math.min( x + bounding.width, ladderX + tileGrid.getCellWidth() ) - Math.max( x, ladderX );
+            return true;
+        }
+        
+        final ContactScan contactScan = collision.getContactScan();
+        final Contacts ladderContacts = contactScan.getContacts( contactScanIds.ladderScanId() );
+        if ( ladderContacts == null || !ladderContacts.hasAnyContact() ) {
+            return false;
+        }
+        
+        final Contact contact = ladderContacts.getFirstContactOfMaterial( PFContact.LADDER );
+        ladderX = contact.worldBounds().x;
+        ladderOverlap = contact.intersectionBounds().width;
+        return true;
     }
 
-    private void adjustToLadder( final ETransform transform, final EEntity entity, final Contact contact ) {
-        transform.setXpos( contact.worldBounds().x );
+    private void adjustToLadder( final ETransform transform, final EEntity entity ) {
+        transform.setXpos( ladderX );
         entity.resetAspects();
         entity.setAspect( PFState.ON_LADDER );
         entity.setAspect( PFState.CLIMB_UP );
@@ -244,6 +424,8 @@ public final class PFMoveController extends EntityController {
         easingType = attributes.getValue( EASING_TYPE, easingType );
         maxVelocity = attributes.getValue( MAX_VELOCITY, maxVelocity );
         timeToMax = attributes.getValue( TIME_TO_MAX, timeToMax );
+        tileGrid = attributes.getValue( TILE_GRID, tileGrid );
+        updateEasingTable();
     }
 
     @Override
@@ -258,5 +440,6 @@ public final class PFMoveController extends EntityController {
         attributes.put( EASING_TYPE, easingType );
         attributes.put( MAX_VELOCITY, maxVelocity );
         attributes.put( TIME_TO_MAX, timeToMax );
+        attributes.put( TILE_GRID, tileGrid );
     }
 }
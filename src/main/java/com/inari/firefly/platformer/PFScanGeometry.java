@@ -0,0 +1,50 @@
+package com.inari.firefly.platformer;
+
+/** The scan geometry of the platformer collision resolving for an entity shape, derived once from the width and
+ *  height of the collision bounds. The values for the default shape of 8x10 pixels are noted in brackets.
+ */
+final class PFScanGeometry {
+    
+    static final PFScanGeometry DEFAULT = new PFScanGeometry( 8, 10 );
+    
+    final int width;
+    final int height;
+    /** the half height of the shape [5] */
+    final int halfHeight;
+    /** first and last column of the head scan [2, 5] */
+    final int headX1;
+    final int headX2;
+    /** first and last row of the side scans [0, 4] */
+    final int sideY1;
+    final int sideY2;
+    /** the rightmost column of the right side scan [7] */
+    final int rightX;
+    /** first and last column of the ground probe [3, 4] */
+    final int groundX1;
+    final int groundX2;
+    /** the first row of the ground probe [3] */
+    final int groundY;
+
+    PFScanGeometry( int width, int height ) {
+        if ( width < 4 || height < 6 || width > PFScanMask.MAX_SIZE || height > PFScanMask.MAX_SIZE ) {
+            throw new IllegalArgumentException( "Unsupported platformer collision bounds size: " + width + "x" + height );
+        }
+        
+        this.width = width;
+        this.height = height;
+        halfHeight = height / 2;
+        headX1 = width / 4;
+        headX2 = width - width / 4 - 1;
+        sideY1 = 0;
+        sideY2 = halfHeight - 1;
+        rightX = width - 1;
+        groundX1 = ( width - 1 ) / 2;
+        groundX2 = width / 2;
+        groundY = halfHeight - 2;
+    }
+    
+    final boolean matches( int width, int height ) {
+        return this.width == width && this.height == height;
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.inari.firefly.platformer;
+
+import com.inari.commons.geom.BitMask;
+
+/** Word packed view of a contact intersection mask of up to 64x64 pixels, one machine word per row.
+ *  The pixels are read from the mask lazily, only the ones a scan reaches. A scan like "number of blocked rows from
+ *  the top within the columns x1 to x2" therefore reads no more pixels than a probe loop of rectangle intersections
+ *  would, and a pixel read once is not read again by the following scans of the same frame.
+ *
+ *  After a vertical correction the view is shifted by whole rows instead of scanning the contacts again. Only the
+ *  rows the contact mask does not cover then are re-tested, against a PFSolidQuery.
+ */
+final class PFScanMask {
+
+    static final int MAX_SIZE = 64;
+
+    /** bit x of rows[ y ] is the pixel x, y, valid for the bits set in read[ y ] */
+    private final long[] rows = new long[ MAX_SIZE ];
+    private final long[] read = new long[ MAX_SIZE ];
+    private BitMask mask;
+    private int width;
+    private int height;
+    /** row y of the view is row y + rowOffset of the mask */
+    private int rowOffset;
+    /** the world geometry and position to re-test the rows not covered by the mask after a shift */
+    private PFSolidQuery solidQuery;
+    private int worldX;
+    private int worldY;
+
+    final int width() {
+        return width;
+    }
+
+    final int height() {
+        return height;
+    }
+
+    final void set( BitMask mask, int width, int height ) {
+        this.mask = mask;
+        this.width = Math.min( width, MAX_SIZE );
+        this.height = Math.min( height, MAX_SIZE );
+        rowOffset = 0;
+        solidQuery = null;
+        for ( int y = 0; y < this.height; y++ ) {
+            rows[ y ] = 0L;
+            read[ y ] = 0L;
+        }
+    }
+
+    /** Shifts the view by the given number of rows, downwards for a positive value. This is the mask of the
+     *  same contacts after the entity was moved by -rows pixels vertically. The rows that the mask does not cover
+     *  are re-tested against the solid query when a scan reaches them, with worldX, worldY the world position of
+     *  the top left pixel of the shifted view.
+     */
+    final void shiftRows( int rows, PFSolidQuery solidQuery, int worldX, int worldY ) {
+        this.solidQuery = solidQuery;
+        this.worldX = worldX;
+        this.worldY = worldY;
+        if ( rows == 0 ) {
+            return;
+        }
+
+        if ( rows > 0 ) {
+            for ( int y = height - 1; y >= 0; y-- ) {
+                moveRow( y - rows, y );
+            }
+        } else {
+            for ( int y = 0; y < height; y++ ) {
+                moveRow( y - rows, y );
+            }
+        }
+        rowOffset -= rows;
+    }
+
+    final boolean getBit( int x, int y ) {
+        return anySet( y, 1L << x );
+    }
+
+    /** The number of consecutive rows from the top that have a bit set within the columns x1 to x2 inclusive */
+    final int countSetRowsFromTop( int x1, int x2 ) {
+        final long columns = columns( x1, x2 );
+        int y = 0;
+        while ( y < height && anySet( y, columns ) ) {
+            y++;
+        }
+        return y;
+    }
+
+    /** The number of consecutive rows from the bottom that have a bit set within the columns x1 to x2 inclusive */
+    final int countSetRowsFromBottom( int x1, int x2 ) {
+        final long columns = columns( x1, x2 );
+        int y = height - 1;
+        while ( y >= 0 && anySet( y, columns ) ) {
+            y--;
+        }
+        return height - 1 - y;
+    }
+
+    /** The number of consecutive columns from the left that have a bit set within the rows y1 to y2 inclusive */
+    final int countSetColumnsFromLeft( int y1, int y2 ) {
+        int x = 0;
+        while ( x < width && anySetInColumn( x, y1, y2 ) ) {
+            x++;
+        }
+        return x;
+    }
+
+    /** The number of consecutive columns from the column x leftwards that have a bit set within the rows y1 to y2 inclusive */
+    final int countSetColumnsFromRight( int x, int y1, int y2 ) {
+        if ( x >= width ) {
+            return 0;
+        }
+        int column = x;
+        while ( column >= 0 && anySetInColumn( column, y1, y2 ) ) {
+            column--;
+        }
+        return x - column;
+    }
+
+    /** The first row from the row y downwards that has a bit set within the columns x1 to x2 inclusive, or -1 */
+    final int firstSetRow( int x1, int x2, int y ) {
+        final long columns = columns( x1, x2 );
+        for ( int row = Math.max( 0, y ); row < height; row++ ) {
+            if ( anySet( row, columns ) ) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private boolean anySetInColumn( int x, int y1, int y2 ) {
+        final long column = 1L << x;
+        for ( int y = Math.max( 0, y1 ); y <= y2 && y < height; y++ ) {
+            if ( anySet( y, column ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true if the row y has a bit set within the given columns. Reads the unread columns one by one, up to
+     *  the first set bit
+     */
+    private boolean anySet( int y, long columns ) {
+        if ( ( rows[ y ] & columns ) != 0L ) {
+            return true;
+        }
+
+        long unread = columns & ~read[ y ];
+        if ( unread != 0L && isExposed( y ) ) {
+            // one query for the whole span first, exposed rows are mostly free
+            final int x1 = Long.numberOfTrailingZeros( unread );
+            final int x2 = MAX_SIZE - 1 - Long.numberOfLeadingZeros( unread );
+            if ( !solidQuery.hasSolid( worldX + x1, worldY + y, x2 - x1 + 1, 1 ) ) {
+                read[ y ] |= unread;
+                return false;
+            }
+        }
+        while ( unread != 0L ) {
+            final long bit = unread & -unread;
+            read[ y ] |= bit;
+            if ( readBit( Long.numberOfTrailingZeros( bit ), y ) ) {
+                rows[ y ] |= bit;
+                return true;
+            }
+            unread ^= bit;
+        }
+        return false;
+    }
+
+    private boolean readBit( int x, int y ) {
+        if ( isExposed( y ) ) {
+            return solidQuery.hasSolid( worldX + x, worldY + y, 1, 1 );
+        }
+        final int maskY = y + rowOffset;
+        return maskY >= 0 && maskY < height && mask.getBit( x, maskY );
+    }
+
+    /** Returns true if the row y of the view is not covered by the mask and is re-tested against the solid query */
+    private boolean isExposed( int y ) {
+        final int maskY = y + rowOffset;
+        return solidQuery != null && ( maskY < 0 || maskY >= height );
+    }
+
+    /** Moves the row from of the view to the row to, or marks the row to as unread if from is outside */
+    private void moveRow( int from, int to ) {
+        if ( from >= 0 && from < height ) {
+            rows[ to ] = rows[ from ];
+            read[ to ] = read[ from ];
+        } else {
+            rows[ to ] = 0L;
+            read[ to ] = 0L;
+        }
+    }
+
+    private long columns( int x1, int x2 ) {
+        final int from = Math.max( 0, x1 );
+        final int to = Math.min( x2, width - 1 );
+        if ( from > to ) {
+            return 0L;
+        }
+        final long upTo = ( to == MAX_SIZE - 1 )? -1L : ( 1L << ( to + 1 ) ) - 1;
+        return upTo & ~( ( 1L << from ) - 1 );
+    }
+
+}
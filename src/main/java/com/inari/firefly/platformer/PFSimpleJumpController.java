@@ -7,15 +7,25 @@ import java.util.Set;
 import com.inari.commons.lang.aspect.Aspect;
 import com.inari.commons.lang.aspect.Aspects;
 import com.inari.commons.lang.list.DynArray;
+import com.inari.firefly.FFInitException;
 import com.inari.firefly.component.attr.AttributeKey;
 import com.inari.firefly.component.attr.AttributeMap;
+import com.inari.firefly.controller.view.ViewDetailTiers;
 import com.inari.firefly.entity.EEntity;
+import com.inari.firefly.entity.EntityActivationEvent;
+import com.inari.firefly.entity.EntityActivationListener;
 import com.inari.firefly.entity.EntityController;
+import com.inari.firefly.entity.EntitySystem;
 import com.inari.firefly.physics.movement.EMovement;
-import com.inari.firefly.system.external.FFInput;
 import com.inari.firefly.system.external.FFInput.ButtonType;
 
-public final class PFSimpleJumpController extends EntityController {
+/** Jump controller for platformer entities. The jump state is kept per entity in primitive arrays indexed by the
+ *  entity id, so one controller instance can drive any number of entities. The jump state of an entity is reset
+ *  when the entity is deactivated, so a reused entity id does not continue the jump of a deleted entity.
+ */
+public final class PFSimpleJumpController extends EntityController implements EntityActivationListener {
+    
+    private static final int INITIAL_STATE_CAPACITY = 16;
     
     public static final AttributeKey<ButtonType> JUMP_BUTTON_TYPE = new AttributeKey<ButtonType>( "jumpButtonType", ButtonType.class, PFSimpleJumpController.class );
     public static final AttributeKey<Float> MAX_VELOCITY  = new AttributeKey<Float>( "maxVelocity", Float.class, PFSimpleJumpController.class );
@@ -28,13 +38,22 @@ public final class PFSimpleJumpController extends EntityController {
         NO_JUMP_ASPECTS
     };
 
+    private EntitySystem entitySystem;
+    private PFDormantEntities dormantEntities;
+    private ViewDetailTiers detailTiers;
+    private PFInputSnapshot input;
+    private long inputTime = -1;
+    private boolean anyInput;
+    private final PFVelocity velocity = new PFVelocity();
+
     private ButtonType jumpButtonType;
     private float maxVelocity;
     private long timeToMax;
     private Aspects noJumpAspects;
     
-    private float time = 0;
-    private boolean jumpPressed = false;
+    private float[] time = new float[ INITIAL_STATE_CAPACITY ];
+    private boolean[] jumpPressed = new boolean[ INITIAL_STATE_CAPACITY ];
+    private int activeEntities = 0;
 
     protected PFSimpleJumpController( int id ) {
         super( id );
@@ -44,6 +63,46 @@ public final class PFSimpleJumpController extends EntityController {
         noJumpAspects = null;
     }
 
+    @Override
+    public final void init() throws FFInitException {
+        super.init();
+        
+        entitySystem = context.getSystem( EntitySystem.SYSTEM_KEY );
+        dormantEntities = context.getSystem( PFDormantEntities.SYSTEM_KEY );
+        detailTiers = context.getSystem( ViewDetailTiers.SYSTEM_KEY );
+        input = context.getSystem( PFInputSnapshot.SYSTEM_KEY );
+        input.watch( jumpButtonType );
+        
+        context.registerListener( EntityActivationEvent.TYPE_KEY, this );
+    }
+
+    @Override
+    public final void dispose() {
+        context.disposeListener( EntityActivationEvent.TYPE_KEY, this );
+        
+        super.dispose();
+    }
+
+    @Override
+    public final boolean match( Aspects aspects ) {
+        return true;
+    }
+
+    @Override
+    public final void entityActivated( int entityId, Aspects aspects ) {
+        activeEntities++;
+    }
+
+    /** Resets the jump state of the deactivated entity and shrinks the jump state when the last entity is deactivated */
+    @Override
+    public final void entityDeactivated( int entityId, Aspects aspects ) {
+        resetJumpState( entityId );
+        // entities that were activated before this controller are not counted
+        if ( activeEntities > 0 && --activeEntities == 0 ) {
+            trimJumpState( 0 );
+        }
+    }
+
     public final ButtonType getJumpButtonType() {
         return jumpButtonType;
     }
@@ -82,23 +141,75 @@ public final class PFSimpleJumpController extends EntityController {
         noJumpAspects.reset( aspect );
     }
 
+    /** Resets the jump state of the given entity. This is done on deactivation of the entity already */
+    public final void resetJumpState( int entityId ) {
+        if ( entityId < time.length ) {
+            time[ entityId ] = 0;
+            jumpPressed[ entityId ] = false;
+        }
+    }
+
+    /** Shrinks the jump state arrays to the given number of entities, for example after a level with many entities was disposed */
+    public final void trimJumpState( int entityCapacity ) {
+        final int capacity = Math.max( entityCapacity, INITIAL_STATE_CAPACITY );
+        if ( capacity < time.length ) {
+            time = Arrays.copyOf( time, capacity );
+            jumpPressed = Arrays.copyOf( jumpPressed, capacity );
+        }
+    }
+
     @Override
     protected final void update( int entityId ) {
-        final EEntity entity = context.getEntityComponent( entityId, EEntity.TYPE_KEY );
+        final long time = context.getTimer().getTime();
+        if ( dormantEntities.isDormant( entityId ) && dormantEntities.stayDormant( entityId, hasInput( time ) ) ) {
+            return;
+        }
+        if ( PFLevelOfDetail.frames( detailTiers, entitySystem, entityId, time ) <= 0 ) {
+            return;
+        }
+        final EEntity entity = entitySystem.getComponent( entityId, EEntity.TYPE_KEY );
+        final EMovement movement = entitySystem.getComponent( entityId, EMovement.TYPE_KEY );
         
+        final PFInputSnapshot input = this.input.refresh();
+        velocity.y = movement.getVelocityY();
+        jump( entityId, entity, velocity, input, context.getTimeElapsed() );
+        if ( velocity.y != movement.getVelocityY() ) {
+            movement.setVelocityY( velocity.y );
+        }
+        // observed with the velocity from the input of this tick
+        dormantEntities.observe( entityId, entity, movement, false, time );
+    }
+
+    /** Returns true if any input of the controller is active within the current tick, evaluated once per tick */
+    private boolean hasInput( final long time ) {
+        if ( time != inputTime ) {
+            inputTime = time;
+            anyInput = hasInput( input.refresh() );
+        }
+        return anyInput;
+    }
+    
+    /** Returns true if the jump button is pressed or typed */
+    final boolean hasInput( final PFInputSnapshot input ) {
+        return input.typed( jumpButtonType ) || input.isPressed( jumpButtonType );
+    }
+    
+    final void jump( final int entityId, final EEntity entity, final PFVelocity velocity, final PFInputSnapshot input, final long elapsed ) {
         if ( noJumpAspects != null && !noJumpAspects.exclude( entity.getAspects() ) ) {
             return;
         }
         
-        final FFInput input = context.getInput();
-        final EMovement movement = context.getEntityComponent( entityId, EMovement.TYPE_KEY );
+        if ( entityId >= time.length ) {
+            ensureStateCapacity( entityId );
+        }
+        
         final boolean typed = input.typed( jumpButtonType );
         
         if ( typed && entity.hasAspect( PFState.ON_GROUND ) ) {
-            movement.setVelocityY( -maxVelocity );
+            velocity.y = -maxVelocity;
             entity.setAspect( PFState.JUMP );
-            time = 0;
-            jumpPressed = true;
+            time[ entityId ] = 0;
+            jumpPressed[ entityId ] = true;
             return;
         } 
             
@@ -109,25 +220,32 @@ public final class PFSimpleJumpController extends EntityController {
         if ( entity.hasAspect( PFState.ON_GROUND ) ) {
             entity.resetAspect( PFState.JUMP );
             entity.resetAspect( PFState.DOUBLE_JUMP );
-            jumpPressed = false;
+            jumpPressed[ entityId ] = false;
             return;
         }
         
-        jumpPressed = jumpPressed && input.isPressed( jumpButtonType );
+        final boolean pressed = jumpPressed[ entityId ] && input.isPressed( jumpButtonType );
+        jumpPressed[ entityId ] = pressed;
         
         if ( typed && !entity.hasAspect( PFState.DOUBLE_JUMP ) ) {
-            time = 0;
+            time[ entityId ] = 0;
             entity.setAspect( PFState.DOUBLE_JUMP );
-            jumpPressed = true;
+            jumpPressed[ entityId ] = true;
             return;
         }
         
-        if ( time < timeToMax && jumpPressed ) {
-            movement.setVelocityY( -maxVelocity );
-            time += context.getTimeElapsed();
+        if ( time[ entityId ] < timeToMax && pressed ) {
+            velocity.y = -maxVelocity;
+            time[ entityId ] += elapsed;
         } 
     }
     
+    private void ensureStateCapacity( int entityId ) {
+        final int capacity = Math.max( entityId + 1, time.length * 2 );
+        time = Arrays.copyOf( time, capacity );
+        jumpPressed = Arrays.copyOf( jumpPressed, capacity );
+    }
+    
     @Override
     public final Set<AttributeKey<?>> attributeKeys() {
         Set<AttributeKey<?>> attributeKeys = super.attributeKeys();
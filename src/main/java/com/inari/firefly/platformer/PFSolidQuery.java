@@ -0,0 +1,9 @@
+package com.inari.firefly.platformer;
+
+/** Query of the solid world geometry, used by the PFCollisionResolver to sweep the movement of fast entities */
+public interface PFSolidQuery {
+
+    /** Returns true if there is any solid pixel within the given world area */
+    boolean hasSolid( int x, int y, int width, int height );
+
+}
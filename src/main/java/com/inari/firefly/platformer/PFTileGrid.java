@@ -0,0 +1,162 @@
+package com.inari.firefly.platformer;
+
+/** Grid index of the solid state and the PFContact materials of the tiles of a platformer level, one flag set per
+ *  cell. Answers which materials are within or under a world area with a few array reads, without a contact scan.
+ *  Cells are updated one by one when tiles change, by a PFTileGridUpdater from the activation and deactivation of
+ *  the tile entities.
+ *
+ *  Can be set on the PFMoveController and PFCollisionResolver for the ladder detection, and as PFSolidQuery on
+ *  the PFCollisionResolver for sweeping fast movements.
+ */
+public final class PFTileGrid implements PFSolidQuery {
+
+    public static final int SOLID = 1;
+
+    private final int worldX;
+    private final int worldY;
+    private final int width;
+    private final int height;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int[] cells;
+
+    /** @param worldX the world x position of the left edge of the grid
+     *  @param worldY the world y position of the top edge of the grid
+     *  @param width the number of cells in x direction
+     *  @param height the number of cells in y direction
+     *  @param cellWidth the width of a cell in pixel
+     *  @param cellHeight the height of a cell in pixel
+     */
+    public PFTileGrid( int worldX, int worldY, int width, int height, int cellWidth, int cellHeight ) {
+        if ( width <= 0 || height <= 0 || cellWidth <= 0 || cellHeight <= 0 ) {
+            throw new IllegalArgumentException( "Invalid tile grid size: " + width + "x" + height + " cells of " + cellWidth + "x" + cellHeight );
+        }
+
+        this.worldX = worldX;
+        this.worldY = worldY;
+        this.width = width;
+        this.height = height;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        cells = new int[ width * height ];
+    }
+
+    /** The flag of the given material in the cell flags */
+    public static int materialFlag( PFContact material ) {
+        return 1 << ( material.ordinal() + 1 );
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    public final int getCellWidth() {
+        return cellWidth;
+    }
+
+    public final int getCellHeight() {
+        return cellHeight;
+    }
+
+    public final int getCellFlags( int cellX, int cellY ) {
+        return cells[ cellY * width + cellX ];
+    }
+
+    public final void setCellFlags( int cellX, int cellY, int flags ) {
+        cells[ cellY * width + cellX ] = flags;
+    }
+
+    public final void setSolid( int cellX, int cellY, boolean solid ) {
+        setFlag( cellX, cellY, SOLID, solid );
+    }
+
+    public final void setMaterial( int cellX, int cellY, PFContact material, boolean set ) {
+        setFlag( cellX, cellY, materialFlag( material ), set );
+    }
+
+    public final void clear() {
+        for ( int i = 0; i < cells.length; i++ ) {
+            cells[ i ] = 0;
+        }
+    }
+
+    /** The flags of all cells within the given world area combined */
+    public final int getFlags( int x, int y, int width, int height ) {
+        final int cellX1 = Math.max( 0, floorDiv( x - worldX, cellWidth ) );
+        final int cellY1 = Math.max( 0, floorDiv( y - worldY, cellHeight ) );
+        final int cellX2 = Math.min( this.width - 1, floorDiv( x + width - 1 - worldX, cellWidth ) );
+        final int cellY2 = Math.min( this.height - 1, floorDiv( y + height - 1 - worldY, cellHeight ) );
+
+        int flags = 0;
+        for ( int cellY = cellY1; cellY <= cellY2; cellY++ ) {
+            final int row = cellY * this.width;
+            for ( int cellX = cellX1; cellX <= cellX2; cellX++ ) {
+                flags |= cells[ row + cellX ];
+            }
+        }
+        return flags;
+    }
+
+    @Override
+    public final boolean hasSolid( int x, int y, int width, int height ) {
+        return ( getFlags( x, y, width, height ) & SOLID ) != 0;
+    }
+
+    public final boolean hasMaterial( int x, int y, int width, int height, PFContact material ) {
+        return ( getFlags( x, y, width, height ) & materialFlag( material ) ) != 0;
+    }
+
+    /** Returns true if the given material is in the row of pixels directly under the given world area */
+    public final boolean hasMaterialUnder( int x, int y, int width, int height, PFContact material ) {
+        return hasMaterial( x, y + height, width, 1, material );
+    }
+
+    /** The index of the first cell within the given world area, in rows from the top, that has one of the given
+     *  flags, or -1 if there is none
+     */
+    public final int firstCell( int x, int y, int width, int height, int flags ) {
+        final int cellX1 = Math.max( 0, floorDiv( x - worldX, cellWidth ) );
+        final int cellY1 = Math.max( 0, floorDiv( y - worldY, cellHeight ) );
+        final int cellX2 = Math.min( this.width - 1, floorDiv( x + width - 1 - worldX, cellWidth ) );
+        final int cellY2 = Math.min( this.height - 1, floorDiv( y + height - 1 - worldY, cellHeight ) );
+
+        for ( int cellY = cellY1; cellY <= cellY2; cellY++ ) {
+            final int row = cellY * this.width;
+            for ( int cellX = cellX1; cellX <= cellX2; cellX++ ) {
+                if ( ( cells[ row + cellX ] & flags ) != 0 ) {
+                    return row + cellX;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** The world x position of the left edge of the cell with the given index */
+    public final int cellWorldX( int cellIndex ) {
+        return worldX + ( cellIndex % width ) * cellWidth;
+    }
+
+    /** The world y position of the top edge of the cell with the given index */
+    public final int cellWorldY( int cellIndex ) {
+        return worldY + ( cellIndex / width ) * cellHeight;
+    }
+
+    private static int floorDiv( int value, int divisor ) {
+        final int result = value / divisor;
+        return ( value < 0 && result * divisor != value )? result - 1 : result;
+    }
+
+    private void setFlag( int cellX, int cellY, int flag, boolean set ) {
+        final int index = cellY * width + cellX;
+        if ( set ) {
+            cells[ index ] |= flag;
+        } else {
+            cells[ index ] &= ~flag;
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.inari.firefly.platformer;
+
+import com.inari.commons.geom.Position;
+import com.inari.commons.lang.aspect.Aspects;
+import com.inari.commons.lang.list.DynArray;
+import com.inari.firefly.entity.EntityActivationEvent;
+import com.inari.firefly.entity.EntityActivationListener;
+import com.inari.firefly.entity.EntitySystem;
+import com.inari.firefly.graphics.tile.ETile;
+import com.inari.firefly.physics.collision.ECollision;
+import com.inari.firefly.system.FFContext;
+
+/** Keeps a PFTileGrid up to date with the tile entities of a tile grid. The cells of a tile entity with an ECollision
+ *  get the flag of its PFContact material on activation, or the SOLID flag if it has no material, and lose it again
+ *  on deactivation. The PFTileGrid must have the position and cell size of the tile grid, so the grid positions of
+ *  the tiles are its cells. Tiles activated before init are not added.
+ */
+public final class PFTileGridUpdater implements EntityActivationListener {
+    
+    private final PFTileGrid tileGrid;
+    private EntitySystem entitySystem;
+
+    public PFTileGridUpdater( PFTileGrid tileGrid ) {
+        this.tileGrid = tileGrid;
+    }
+
+    public final PFTileGrid getTileGrid() {
+        return tileGrid;
+    }
+
+    public final void init( FFContext context ) {
+        entitySystem = context.getSystem( EntitySystem.SYSTEM_KEY );
+        
+        context.registerListener( EntityActivationEvent.TYPE_KEY, this );
+    }
+    
+    public final void dispose( FFContext context ) {
+        context.disposeListener( EntityActivationEvent.TYPE_KEY, this );
+    }
+
+    @Override
+    public final boolean match( Aspects aspects ) {
+        return true;
+    }
+
+    @Override
+    public final void entityActivated( int entityId, Aspects aspects ) {
+        update( entityId, true );
+    }
+
+    @Override
+    public final void entityDeactivated( int entityId, Aspects aspects ) {
+        update( entityId, false );
+    }
+
+    private void update( final int entityId, final boolean set ) {
+        final ETile tile = entitySystem.getComponent( entityId, ETile.TYPE_KEY );
+        if ( tile == null ) {
+            return;
+        }
+        final ECollision collision = entitySystem.getComponent( entityId, ECollision.TYPE_KEY );
+        if ( collision == null ) {
+            return;
+        }
+        
+        final PFContact material = PFContact.of( collision.getMaterialType() );
+        final int flag = ( material != null )? PFTileGrid.materialFlag( material ) : PFTileGrid.SOLID;
+        if ( !tile.isMultiPosition() ) {
+            setFlag( tile.getGridXPos(), tile.getGridYPos(), flag, set );
+            return;
+        }
+        
+        final DynArray<Position> positions = tile.getGridPositions();
+        for ( int i = 0; i < positions.capacity(); i++ ) {
+            final Position position = positions.get( i );
+            if ( position != null ) {
+                setFlag( position.x, position.y, flag, set );
+            }
+        }
+    }
+
+    private void setFlag( final int cellX, final int cellY, final int flag, final boolean set ) {
+        if ( cellX < 0 || cellY < 0 || cellX >= tileGrid.getWidth() || cellY >= tileGrid.getHeight() ) {
+            return;
+        }
+        
+        final int flags = tileGrid.getCellFlags( cellX, cellY );
+        tileGrid.setCellFlags( cellX, cellY, ( set )? flags | flag : flags & ~flag );
+    }
+
+}
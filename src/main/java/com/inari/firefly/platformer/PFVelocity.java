@@ -0,0 +1,9 @@
+package com.inari.firefly.platformer;
+
+/** Velocity of an entity while it is updated by one or more platformer controller steps, written back to EMovement once */
+final class PFVelocity {
+    
+    float x;
+    float y;
+
+}
@@ -0,0 +1,108 @@
+package com.inari.firefly.controller.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CellStripsTest {
+
+    private static final int OFFSET = 40;
+    private static final int SIZE = 120;
+
+    @Test
+    public void testStripsMatchVisibleCellsOfRandomCameraMoves() {
+        final Random random = new Random( 25 );
+        final int[] strips = new int[ CellStrips.MAX_STRIPS << 2 ];
+        final int cellWidth = 16;
+        final int cellHeight = 12;
+        final float width = 150.5f;
+        final float height = 100f;
+        final boolean[][] visible = new boolean[ SIZE ][ SIZE ];
+
+        float x = 0f;
+        float y = 0f;
+        int x1 = 0, y1 = 0, x2 = -1, y2 = -1;
+        for ( int move = 0; move < 20000; move++ ) {
+            if ( random.nextInt( 50 ) == 0 ) {
+                // a jump to somewhere else, the old and new area may not overlap
+                x = random.nextFloat() * 900f - 300f;
+                y = random.nextFloat() * 900f - 300f;
+            } else {
+                x = Math.max( -300f, Math.min( 600f, x + random.nextFloat() * 40f - 20f ) );
+                y = Math.max( -300f, Math.min( 600f, y + random.nextFloat() * 40f - 20f ) );
+            }
+
+            final int newX1 = CellStrips.firstCell( x, cellWidth );
+            final int newY1 = CellStrips.firstCell( y, cellHeight );
+            final int newX2 = CellStrips.lastCell( x, width, cellWidth );
+            final int newY2 = CellStrips.lastCell( y, height, cellHeight );
+            if ( x2 < x1 ) {
+                apply( visible, newX1, newY1, newX2, newY2, true );
+            } else {
+                final int exited = CellStrips.difference( x1, y1, x2, y2, newX1, newY1, newX2, newY2, strips );
+                for ( int i = 0; i < exited; i++ ) {
+                    apply( visible, strips[ i * 4 ], strips[ i * 4 + 1 ], strips[ i * 4 + 2 ], strips[ i * 4 + 3 ], false );
+                }
+                final int entered = CellStrips.difference( newX1, newY1, newX2, newY2, x1, y1, x2, y2, strips );
+                for ( int i = 0; i < entered; i++ ) {
+                    apply( visible, strips[ i * 4 ], strips[ i * 4 + 1 ], strips[ i * 4 + 2 ], strips[ i * 4 + 3 ], true );
+                }
+            }
+            x1 = newX1;
+            y1 = newY1;
+            x2 = newX2;
+            y2 = newY2;
+
+            assertVisibleCells( visible, x, y, width, height, cellWidth, cellHeight );
+        }
+    }
+
+    @Test
+    public void testCellsOfNegativePositions() {
+        assertEquals( -1, CellStrips.firstCell( -0.5f, 16 ) );
+        assertEquals( -1, CellStrips.firstCell( -16f, 16 ) );
+        assertEquals( -2, CellStrips.firstCell( -16.5f, 16 ) );
+        assertEquals( -1, CellStrips.lastCell( -16f, 16f, 16 ) );
+        assertEquals( 0, CellStrips.lastCell( -16f, 16.5f, 16 ) );
+    }
+
+    @Test
+    public void testNoStripsForSameArea() {
+        assertEquals( 0, CellStrips.difference( 1, 2, 5, 6, 1, 2, 5, 6, new int[ CellStrips.MAX_STRIPS << 2 ] ) );
+    }
+
+    /** Adds or removes the cells of the strip, each of them must have the opposite visibility before */
+    private static void apply( boolean[][] visible, int x1, int y1, int x2, int y2, boolean entered ) {
+        assertTrue( x1 <= x2 && y1 <= y2 );
+        for ( int cellY = y1; cellY <= y2; cellY++ ) {
+            for ( int cellX = x1; cellX <= x2; cellX++ ) {
+                assertEquals( !entered, visible[ cellY + OFFSET ][ cellX + OFFSET ] );
+                visible[ cellY + OFFSET ][ cellX + OFFSET ] = entered;
+            }
+        }
+    }
+
+    /** Checks all cells against the pixels the area covers */
+    private static void assertVisibleCells( boolean[][] visible, float x, float y, float width, float height, int cellWidth, int cellHeight ) {
+        final int pixelX1 = (int) Math.floor( x );
+        final int pixelY1 = (int) Math.floor( y );
+        final int pixelX2 = (int) Math.ceil( x + width ) - 1;
+        final int pixelY2 = (int) Math.ceil( y + height ) - 1;
+        for ( int cellY = -OFFSET; cellY < SIZE - OFFSET; cellY++ ) {
+            for ( int cellX = -OFFSET; cellX < SIZE - OFFSET; cellX++ ) {
+                final boolean expected = cellX * cellWidth <= pixelX2 && ( cellX + 1 ) * cellWidth - 1 >= pixelX1
+                    && cellY * cellHeight <= pixelY2 && ( cellY + 1 ) * cellHeight - 1 >= pixelY1;
+                if ( expected ) {
+                    assertTrue( visible[ cellY + OFFSET ][ cellX + OFFSET ] );
+                } else {
+                    assertFalse( visible[ cellY + OFFSET ][ cellX + OFFSET ] );
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.inari.firefly.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.inari.commons.lang.functional.IntFunction;
+
+public class ConvertedTextureCacheTest {
+
+    private final List<Integer> evicted = new ArrayList<Integer>();
+    private ConvertedTextureCache cache;
+
+    @Before
+    public void init() {
+        evicted.clear();
+        cache = new ConvertedTextureCache( 1000 );
+        cache.setEvictionListener( new ConvertedTextureCache.EvictionListener() {
+            @Override
+            public void evicted( int textureId, IntFunction converter, int[] pixels, int convertedTextureId ) {
+                evicted.add( textureId );
+            }
+        } );
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        final IntColorConverter converter = converter( 1, 2 );
+        final int[] source = new int[] { 1, 3, 1 };
+
+        final int[] pixels = cache.getPixels( 1, source, converter );
+        assertArrayEquals( new int[] { 2, 3, 2 }, pixels );
+        assertSame( pixels, cache.getPixels( 1, source, converter ) );
+        cache.getPixels( 1, source, converter( 1, 2 ) );
+
+        assertEquals( 1, cache.getHits() );
+        assertEquals( 2, cache.getMisses() );
+        assertEquals( 2, cache.size() );
+        assertEquals( 24, cache.getUsedMemory() );
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        final IntColorConverter converter = converter( 1, 2 );
+        cache.setMemoryBudget( 100 );
+        cache.getPixels( 1, new int[ 10 ], converter );
+        cache.getPixels( 2, new int[ 10 ], converter );
+        cache.getPixels( 1, new int[ 10 ], converter );
+        cache.getPixels( 3, new int[ 10 ], converter );
+
+        assertEquals( 1, cache.getEvictions() );
+        assertEquals( 2, evicted.get( 0 ).intValue() );
+        assertEquals( 80, cache.getUsedMemory() );
+    }
+
+    @Test
+    public void testUpdatedConverterMakesEntriesStale() {
+        final IntColorConverter converter = converter( 1, 2 );
+        final int[] source = new int[] { 1, 1 };
+        cache.getPixels( 7, source, converter );
+        cache.putConvertedTextureId( 7, converter, 42, 100 );
+        assertEquals( 42, cache.getConvertedTextureId( 7, converter ) );
+
+        converter.setColor( 1, 5 );
+
+        assertEquals( -1, cache.getConvertedTextureId( 7, converter ) );
+        assertEquals( 7, evicted.get( 0 ).intValue() );
+        assertEquals( 0, cache.getUsedMemory() );
+        assertArrayEquals( new int[] { 5, 5 }, cache.getPixels( 7, source, converter ) );
+        assertEquals( 0, cache.getEvictions() );
+    }
+
+    @Test
+    public void testUpdatedChainMakesEntriesStale() {
+        final IntColorConverter first = converter( 1, 2 );
+        final IntColorConverterChain chain = new IntColorConverterChain( first, converter( 2, 3 ) );
+        final int[] source = new int[] { 1 };
+        assertArrayEquals( new int[] { 3 }, cache.getPixels( 1, source, chain ) );
+
+        first.removeColor( 1 );
+
+        assertArrayEquals( new int[] { 1 }, cache.getPixels( 1, source, chain ) );
+        assertEquals( 2, cache.getMisses() );
+    }
+
+    private static IntColorConverter converter( int color, int replaceColor ) {
+        final Map<Integer, Integer> colorMap = new HashMap<Integer, Integer>();
+        colorMap.put( color, replaceColor );
+        return new IntColorConverter( colorMap );
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.inari.firefly.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class IntColorConverterChainTest {
+
+    @Test
+    public void testChainAppliesConvertersInOrder() {
+        final IntColorConverter first = converter( 1, 2, 3, 4 );
+        final IntColorConverter second = converter( 2, 5, 4, 1 );
+        final IntColorConverterChain chain = new IntColorConverterChain( first, second );
+
+        assertEquals( 5, chain.f( 1 ) );
+        assertEquals( 5, chain.f( 2 ) );
+        assertEquals( 1, chain.f( 3 ) );
+        assertEquals( 1, chain.f( 4 ) );
+        assertEquals( 9, chain.f( 9 ) );
+    }
+
+    @Test
+    public void testChainFollowsConverterUpdates() {
+        final IntColorConverter first = converter( 1, 2 );
+        final IntColorConverter second = converter( 2, 3 );
+        final IntColorConverterChain chain = new IntColorConverterChain( first, second );
+        assertEquals( 3, chain.f( 1 ) );
+
+        second.setColor( 2, 7 );
+        assertEquals( 7, chain.f( 1 ) );
+
+        first.removeColor( 1 );
+        assertEquals( 1, chain.f( 1 ) );
+        assertEquals( 7, chain.f( 2 ) );
+
+        first.getColorMap().put( 8, 2 );
+        assertEquals( 8, chain.f( 8 ) );
+        first.update();
+        assertEquals( 7, chain.f( 8 ) );
+    }
+
+    @Test
+    public void testBulkConversion() {
+        final IntColorConverterChain chain = new IntColorConverterChain( converter( 1, 2 ), converter( 2, 3 ) );
+
+        final int[] pixels = new int[] { 1, 1, 2, 0, 1, 4 };
+        chain.convert( pixels, 1, 4 );
+        assertArrayEquals( new int[] { 1, 3, 3, 0, 3, 4 }, pixels );
+
+        final int[] dest = new int[ 3 ];
+        chain.convert( new int[] { 4, 1, 2 }, 0, dest, 0, 3 );
+        assertArrayEquals( new int[] { 4, 3, 3 }, dest );
+
+        final IntBuffer source = IntBuffer.wrap( new int[] { 9, 1, 2, 1 } );
+        source.position( 1 );
+        final IntBuffer target = IntBuffer.allocate( 3 );
+        chain.convert( source, target );
+        assertEquals( 1, source.position() );
+        assertArrayEquals( new int[] { 3, 3, 3 }, target.array() );
+    }
+
+    @Test
+    public void testParallelBulkConversion() {
+        final IntColorConverterChain chain = new IntColorConverterChain( converter( 1, 2 ), converter( 2, 3 ) );
+        final int length = IntColorConverter.PARALLEL_THRESHOLD * 3 + 17;
+        final int[] pixels = new int[ length ];
+        for ( int i = 0; i < length; i++ ) {
+            pixels[ i ] = i % 5;
+        }
+
+        chain.convert( pixels, 0, length );
+
+        for ( int i = 0; i < length; i++ ) {
+            assertEquals( ( i % 5 == 1 || i % 5 == 2 )? 3 : i % 5, pixels[ i ] );
+        }
+    }
+
+    private static IntColorConverter converter( int... colorPairs ) {
+        final Map<Integer, Integer> colorMap = new HashMap<Integer, Integer>();
+        for ( int i = 0; i < colorPairs.length; i += 2 ) {
+            colorMap.put( colorPairs[ i ], colorPairs[ i + 1 ] );
+        }
+        return new IntColorConverter( colorMap );
+    }
+
+}
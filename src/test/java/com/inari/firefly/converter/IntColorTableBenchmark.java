@@ -0,0 +1,86 @@
+package com.inari.firefly.converter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/** Compares the lookup of IntColorTable with the boxed HashMap lookup that IntColorConverter used before, over the
+ *  pixels of a 2048x2048 image with 32 colors and a map of 16 of them. The pixels are either random or runs of up to
+ *  16 pixels of the same color, like in a sprite sheet. Run the main method; the results are the mean time per pass
+ *  over all pixels after warm-up.
+ */
+public final class IntColorTableBenchmark {
+
+    private static final int SIZE = 2048 * 2048;
+    private static final int WARM_UP_PASSES = 20;
+    private static final int PASSES = 40;
+
+    public static void main( String[] args ) {
+        final Random random = new Random( 1 );
+        final int[] colors = new int[ 32 ];
+        for ( int i = 0; i < colors.length; i++ ) {
+            colors[ i ] = 0xff000000 | random.nextInt( 1 << 24 );
+        }
+        final Map<Integer, Integer> colorMap = new HashMap<Integer, Integer>();
+        for ( int i = 0; i < 16; i++ ) {
+            colorMap.put( colors[ i ], 0xff000000 | random.nextInt( 1 << 24 ) );
+        }
+        final IntColorTable table = new IntColorTable( colorMap );
+
+        run( "random pixels", pixels( random, colors, 1 ), colorMap, table );
+        run( "runs of pixels", pixels( random, colors, 16 ), colorMap, table );
+    }
+
+    private static void run( String name, int[] pixels, Map<Integer, Integer> colorMap, IntColorTable table ) {
+        final int[] dest = new int[ pixels.length ];
+        long checksum = 0;
+        for ( int i = 0; i < WARM_UP_PASSES; i++ ) {
+            checksum += mapPass( colorMap, pixels, dest );
+            checksum += tablePass( table, pixels, dest );
+        }
+
+        long mapTime = 0;
+        long tableTime = 0;
+        for ( int i = 0; i < PASSES; i++ ) {
+            long start = System.nanoTime();
+            checksum += mapPass( colorMap, pixels, dest );
+            mapTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            checksum += tablePass( table, pixels, dest );
+            tableTime += System.nanoTime() - start;
+        }
+
+        System.out.println( name + ": HashMap " + ( mapTime / PASSES / 1000 ) + " us, IntColorTable "
+            + ( tableTime / PASSES / 1000 ) + " us per pass (checksum " + checksum + ")" );
+    }
+
+    private static int[] pixels( Random random, int[] colors, int maxRunLength ) {
+        final int[] pixels = new int[ SIZE ];
+        int i = 0;
+        while ( i < SIZE ) {
+            final int color = colors[ random.nextInt( colors.length ) ];
+            final int end = Math.min( SIZE, i + 1 + random.nextInt( maxRunLength ) );
+            while ( i < end ) {
+                pixels[ i++ ] = color;
+            }
+        }
+        return pixels;
+    }
+
+    private static long mapPass( Map<Integer, Integer> colorMap, int[] pixels, int[] dest ) {
+        for ( int i = 0; i < pixels.length; i++ ) {
+            final Integer mapped = colorMap.get( pixels[ i ] );
+            dest[ i ] = ( mapped != null )? mapped : pixels[ i ];
+        }
+        return dest[ pixels.length - 1 ];
+    }
+
+    private static long tablePass( IntColorTable table, int[] pixels, int[] dest ) {
+        for ( int i = 0; i < pixels.length; i++ ) {
+            dest[ i ] = table.get( pixels[ i ] );
+        }
+        return dest[ pixels.length - 1 ];
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.inari.firefly.converter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntColorTableTest {
+
+    @Test
+    public void testEmptyMapMapsColorsToThemselves() {
+        final IntColorTable table = new IntColorTable( new HashMap<Integer, Integer>() );
+
+        assertEquals( 0, table.size() );
+        assertEquals( 0, table.get( 0 ) );
+        assertEquals( -1, table.get( -1 ) );
+        assertEquals( 0xff00ff00, table.get( 0xff00ff00 ) );
+    }
+
+    @Test
+    public void testMappedAndUnmappedColors() {
+        final Map<Integer, Integer> colorMap = new HashMap<Integer, Integer>();
+        colorMap.put( 0, 0xffffffff );
+        colorMap.put( 0xff000000, 0xff0000ff );
+        colorMap.put( 0xffff0000, 0 );
+        final IntColorTable table = new IntColorTable( colorMap );
+
+        assertEquals( 3, table.size() );
+        assertTrue( table.isDirect() );
+        assertEquals( 0xffffffff, table.get( 0 ) );
+        assertEquals( 0xff0000ff, table.get( 0xff000000 ) );
+        assertEquals( 0, table.get( 0xffff0000 ) );
+        assertEquals( 0xff00ff00, table.get( 0xff00ff00 ) );
+    }
+
+    @Test
+    public void testNullEntriesAreIgnored() {
+        final Map<Integer, Integer> colorMap = new HashMap<Integer, Integer>();
+        colorMap.put( 1, null );
+        colorMap.put( null, 5 );
+        colorMap.put( 2, 3 );
+        final IntColorTable table = new IntColorTable( colorMap );
+
+        assertEquals( 1, table.size() );
+        assertEquals( 1, table.get( 1 ) );
+        assertEquals( 3, table.get( 2 ) );
+    }
+
+    @Test
+    public void testPaletteSizedMapsGetDirectSlots() {
+        final Random random = new Random( 5 );
+        for ( int size = 1; size <= 256; size *= 2 ) {
+            final Map<Integer, Integer> colorMap = new HashMap<Integer, Integer>();
+            while ( colorMap.size() < size ) {
+                colorMap.put( 0xff000000 | random.nextInt( 1 << 24 ), random.nextInt() );
+            }
+            final IntColorTable table = new IntColorTable( colorMap );
+
+            assertTrue( table.isDirect() );
+            assertSameResultsAsMap( colorMap, table, random );
+        }
+    }
+
+    @Test
+    public void testLargeMapsUseLinearProbing() {
+        final Random random = new Random( 7 );
+        final Map<Integer, Integer> colorMap = new HashMap<Integer, Integer>();
+        for ( int i = 0; i < 1000; i++ ) {
+            colorMap.put( ( random.nextBoolean() )? random.nextInt() : 0xff000000 | i, random.nextInt() );
+        }
+        colorMap.put( 0, 42 );
+        final IntColorTable table = new IntColorTable( colorMap );
+
+        assertFalse( table.isDirect() );
+        assertSameResultsAsMap( colorMap, table, random );
+    }
+
+    private static void assertSameResultsAsMap( Map<Integer, Integer> colorMap, IntColorTable table, Random random ) {
+        for ( Map.Entry<Integer, Integer> entry : colorMap.entrySet() ) {
+            assertEquals( entry.getValue().intValue(), table.get( entry.getKey() ) );
+        }
+        for ( int i = 0; i < 10000; i++ ) {
+            final int color = ( i == 0 )? 0 : random.nextInt();
+            final Integer mapped = colorMap.get( color );
+            assertEquals( ( mapped != null )? mapped.intValue() : color, table.get( color ) );
+        }
+    }
+
+}
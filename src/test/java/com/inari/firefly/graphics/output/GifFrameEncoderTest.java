@@ -0,0 +1,192 @@
+package com.inari.firefly.graphics.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GifFrameEncoderTest {
+
+    @Test
+    public void testExactColorsRoundTrip() {
+        final GifFrameEncoder encoder = new GifFrameEncoder();
+        final GifFrame frame = new GifFrame();
+        final Random random = new Random( 1 );
+        // many sizes and color counts so the code table ends on and around the code size boundaries, where the
+        // end of information has to be written with the widened code size
+        for ( int colors = 2; colors <= 255; colors += 17 ) {
+            for ( int size = 1; size < 600; size += 7 ) {
+                final byte[] rgb = randomPixels( random, size, colors );
+                encoder.encode( rgb, size, 0, 0, size, 1, 10, frame );
+
+                final int[] decoded = decode( frame, size );
+                for ( int i = 0; i < size; i++ ) {
+                    assertEquals( rgb( rgb, i ), frame.palette[ decoded[ i ] ] );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testQuantizedColors() {
+        final GifFrameEncoder encoder = new GifFrameEncoder();
+        final GifFrame frame = new GifFrame();
+        final int width = 128;
+        final int height = 64;
+        final byte[] rgb = new byte[ width * height * 3 ];
+        for ( int y = 0; y < height; y++ ) {
+            for ( int x = 0; x < width; x++ ) {
+                final int offset = ( y * width + x ) * 3;
+                rgb[ offset ] = (byte) ( x * 2 );
+                rgb[ offset + 1 ] = (byte) ( y * 4 );
+                rgb[ offset + 2 ] = (byte) ( ( x + y ) & 0xff );
+            }
+        }
+
+        encoder.encode( rgb, width, 0, 0, width, height, 10, frame );
+
+        assertTrue( frame.paletteSize <= 255 );
+        final int[] decoded = decode( frame, width * height );
+        long error = 0;
+        for ( int i = 0; i < width * height; i++ ) {
+            final int expected = rgb( rgb, i );
+            final int actual = frame.palette[ decoded[ i ] ];
+            error += Math.abs( ( expected >> 16 ) - ( actual >> 16 ) )
+                + Math.abs( ( ( expected >> 8 ) & 0xff ) - ( ( actual >> 8 ) & 0xff ) )
+                + Math.abs( ( expected & 0xff ) - ( actual & 0xff ) );
+        }
+        // the uniform color cube has a mean error of about 40 for this gradient
+        assertTrue( "mean error " + error / ( width * height ), error / ( width * height ) < 16 );
+    }
+
+    @Test
+    public void testDeltaTransparency() {
+        final GifFrameEncoder encoder = new GifFrameEncoder();
+        final GifFrame frame = new GifFrame();
+        final int width = 16;
+        final int height = 8;
+        final byte[] previous = randomPixels( new Random( 2 ), width * height, 5 );
+        final byte[] rgb = previous.clone();
+        rgb[ ( 2 * width + 3 ) * 3 ] ^= 0x40;
+        rgb[ ( 5 * width + 9 ) * 3 + 1 ] ^= 0x40;
+
+        encoder.encodeDelta( rgb, previous, width, height, 10, frame );
+
+        assertEquals( 3, frame.x );
+        assertEquals( 2, frame.y );
+        assertEquals( 7, frame.width );
+        assertEquals( 4, frame.height );
+        final int[] decoded = decode( frame, frame.width * frame.height );
+        for ( int i = 0; i < decoded.length; i++ ) {
+            final int index = ( frame.y + i / frame.width ) * width + frame.x + i % frame.width;
+            final boolean changed = rgb( rgb, index ) != rgb( previous, index );
+            assertEquals( changed, decoded[ i ] != frame.transparentIndex );
+            if ( changed ) {
+                assertEquals( rgb( rgb, index ), frame.palette[ decoded[ i ] ] );
+            }
+        }
+    }
+
+    private static byte[] randomPixels( Random random, int size, int colors ) {
+        final int[] palette = new int[ colors ];
+        for ( int i = 0; i < colors; i++ ) {
+            palette[ i ] = random.nextInt( 1 << 24 );
+        }
+        final byte[] rgb = new byte[ size * 3 ];
+        for ( int i = 0; i < size; i++ ) {
+            // runs of equal colors so the table gets longer strings too
+            final int color = palette[ ( random.nextInt( 4 ) == 0 && i > 0 )? 0 : random.nextInt( colors ) ];
+            rgb[ i * 3 ] = (byte) ( color >> 16 );
+            rgb[ i * 3 + 1 ] = (byte) ( color >> 8 );
+            rgb[ i * 3 + 2 ] = (byte) color;
+        }
+        return rgb;
+    }
+
+    private static int rgb( byte[] rgb, int index ) {
+        return ( ( rgb[ index * 3 ] & 0xff ) << 16 ) | ( ( rgb[ index * 3 + 1 ] & 0xff ) << 8 ) | ( rgb[ index * 3 + 2 ] & 0xff );
+    }
+
+    /** A strict LZW decoder of the image data: fails if the end of information code is not read at the code size
+     *  the decoder has, or if there is data left after it
+     */
+    private static int[] decode( GifFrame frame, int length ) {
+        final byte[] data = frame.imageData;
+        final int minCodeSize = data[ 0 ];
+        byte[] bytes = new byte[ frame.imageDataLength ];
+        int byteCount = 0;
+        int position = 1;
+        while ( data[ position ] != 0 ) {
+            final int blockSize = data[ position ] & 0xff;
+            System.arraycopy( data, position + 1, bytes, byteCount, blockSize );
+            byteCount += blockSize;
+            position += blockSize + 1;
+        }
+        assertEquals( frame.imageDataLength, position + 1 );
+
+        final int clearCode = 1 << minCodeSize;
+        final int eoiCode = clearCode + 1;
+        final int[] prefixes = new int[ 4096 ];
+        final int[] suffixes = new int[ 4096 ];
+        final int[] firsts = new int[ 4096 ];
+        final int[] lengths = new int[ 4096 ];
+        for ( int code = 0; code < clearCode; code++ ) {
+            suffixes[ code ] = code;
+            firsts[ code ] = code;
+            lengths[ code ] = 1;
+        }
+
+        final int[] result = new int[ length ];
+        int resultLength = 0;
+        int codeSize = minCodeSize + 1;
+        int nextCode = eoiCode + 1;
+        int previous = -1;
+        int bitPosition = 0;
+        while ( true ) {
+            assertTrue( "no end of information", bitPosition + codeSize <= byteCount * 8 );
+            int code = 0;
+            for ( int bit = 0; bit < codeSize; bit++, bitPosition++ ) {
+                code |= ( ( bytes[ bitPosition >> 3 ] >> ( bitPosition & 7 ) ) & 1 ) << bit;
+            }
+
+            if ( code == clearCode ) {
+                codeSize = minCodeSize + 1;
+                nextCode = eoiCode + 1;
+                previous = -1;
+                continue;
+            }
+            if ( code == eoiCode ) {
+                break;
+            }
+
+            assertTrue( "invalid code " + code, code <= nextCode && ( code != nextCode || previous >= 0 ) );
+            if ( previous >= 0 && nextCode < 4096 ) {
+                prefixes[ nextCode ] = previous;
+                suffixes[ nextCode ] = firsts[ ( code == nextCode )? previous : code ];
+                firsts[ nextCode ] = firsts[ previous ];
+                lengths[ nextCode ] = lengths[ previous ] + 1;
+                nextCode++;
+            }
+
+            int end = resultLength + lengths[ code ];
+            assertTrue( "too many pixels", end <= length );
+            for ( int c = code, i = end - 1; i >= resultLength; i-- ) {
+                result[ i ] = suffixes[ c ];
+                c = prefixes[ c ];
+            }
+            resultLength = end;
+            previous = code;
+
+            if ( nextCode == ( 1 << codeSize ) && codeSize < 12 ) {
+                codeSize++;
+            }
+        }
+
+        assertEquals( length, resultLength );
+        assertEquals( "data after end of information", ( bitPosition + 7 ) >> 3, byteCount );
+        return result;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.inari.firefly.graphics.output;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class PngWriterTest {
+
+    @Test
+    public void testWritesDecodableImagesWithOneDeflater() throws IOException {
+        final int width = 37;
+        final int height = 23;
+        final PngWriter writer = new PngWriter( width, height );
+        final Random random = new Random( 3 );
+        final File file = File.createTempFile( "pngwriter", ".png" );
+        try {
+            for ( int frame = 0; frame < 3; frame++ ) {
+                final byte[] rgb = new byte[ width * height * 3 ];
+                random.nextBytes( rgb );
+                writer.write( rgb, file.getPath() );
+
+                final BufferedImage image = ImageIO.read( file );
+                assertEquals( width, image.getWidth() );
+                assertEquals( height, image.getHeight() );
+                for ( int i = 0; i < width * height; i++ ) {
+                    final int expected = ( ( rgb[ i * 3 ] & 0xff ) << 16 ) | ( ( rgb[ i * 3 + 1 ] & 0xff ) << 8 ) | ( rgb[ i * 3 + 2 ] & 0xff );
+                    assertEquals( expected, image.getRGB( i % width, i / width ) & 0xffffff );
+                }
+            }
+        } finally {
+            writer.close();
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.inari.firefly.platformer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PFFixedTimestepTest {
+
+    @Test
+    public void testStepsIndependentOfTickRate() {
+        final PFFixedTimestep timestep = new PFFixedTimestep( 60 );
+        int steps = 0;
+        long time = 0;
+        while ( time < 10000 ) {
+            time += 7;
+            steps += timestep.advance( time, 7 );
+            final float interpolation = timestep.getInterpolation();
+            assertTrue( interpolation >= 0f && interpolation < 1f );
+        }
+
+        // 10003ms at 60Hz, the step time of 16.666ms is not rounded to whole milliseconds
+        assertEquals( 600, steps );
+        assertTrue( Math.abs( timestep.getTime() - 10000 ) <= 1 );
+    }
+
+    @Test
+    public void testSameTickReturnsSameSteps() {
+        final PFFixedTimestep timestep = new PFFixedTimestep( 50 );
+
+        assertEquals( 2, timestep.advance( 45, 45 ) );
+        assertEquals( 2, timestep.advance( 45, 45 ) );
+        assertEquals( 0.25f, timestep.getInterpolation(), 0.0001f );
+        assertEquals( 40, timestep.getTime() );
+    }
+
+    @Test
+    public void testStepEndTimes() {
+        final PFFixedTimestep timestep = new PFFixedTimestep( 60 );
+        timestep.advance( 10, 10 );
+        final int steps = timestep.advance( 60, 50 );
+
+        assertEquals( 3, steps );
+        assertEquals( 0, timestep.getStepEndTime( -1 ) );
+        assertEquals( 16, timestep.getStepEndTime( 0 ) );
+        assertEquals( 33, timestep.getStepEndTime( 1 ) );
+        assertEquals( timestep.getTime(), timestep.getStepEndTime( steps - 1 ) );
+    }
+
+    @Test
+    public void testMaxStepsDropTime() {
+        final PFFixedTimestep timestep = new PFFixedTimestep( 100 );
+        timestep.setMaxStepsPerTick( 3 );
+
+        assertEquals( 3, timestep.advance( 1000, 1000 ) );
+        assertTrue( timestep.getInterpolation() < 1f );
+        assertEquals( 1, timestep.advance( 1010, 10 ) );
+        assertEquals( 40, timestep.getTime() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidStepRate() {
+        new PFFixedTimestep( 0 );
+    }
+
+}
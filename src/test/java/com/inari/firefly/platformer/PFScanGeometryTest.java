@@ -0,0 +1,62 @@
+package com.inari.firefly.platformer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PFScanGeometryTest {
+
+    @Test
+    public void testDefaultIsTheFormerFixedGeometry() {
+        final PFScanGeometry geometry = PFScanGeometry.DEFAULT;
+
+        assertEquals( 8, geometry.width );
+        assertEquals( 10, geometry.height );
+        assertEquals( 5, geometry.halfHeight );
+        // hScan = ( 2, 0, 4, 1 )
+        assertEquals( 2, geometry.headX1 );
+        assertEquals( 5, geometry.headX2 );
+        // vScan = ( 0, 0, 1, 5 ) and vScan.x = 7
+        assertEquals( 0, geometry.sideY1 );
+        assertEquals( 4, geometry.sideY2 );
+        assertEquals( 7, geometry.rightX );
+        // the column 3 and 4 probes of adjustToGround, from row 3 on
+        assertEquals( 3, geometry.groundX1 );
+        assertEquals( 4, geometry.groundX2 );
+        assertEquals( 3, geometry.groundY );
+    }
+
+    @Test
+    public void testGeometryWithinBounds() {
+        for ( int width = 4; width <= PFScanMask.MAX_SIZE; width++ ) {
+            for ( int height = 6; height <= PFScanMask.MAX_SIZE; height++ ) {
+                final PFScanGeometry geometry = new PFScanGeometry( width, height );
+
+                assertTrue( geometry.matches( width, height ) );
+                assertFalse( geometry.matches( width + 1, height ) );
+                assertEquals( height / 2, geometry.halfHeight );
+                assertTrue( 0 < geometry.headX1 && geometry.headX1 <= geometry.headX2 && geometry.headX2 < width - 1 );
+                // head and ground scans are centered
+                assertEquals( geometry.headX1, width - 1 - geometry.headX2 );
+                assertEquals( geometry.groundX1, width - 1 - geometry.groundX2 );
+                assertTrue( geometry.headX1 <= geometry.groundX1 && geometry.groundX2 <= geometry.headX2 );
+                assertEquals( width - 1, geometry.rightX );
+                assertEquals( geometry.halfHeight - 1, geometry.sideY2 );
+                assertTrue( 0 < geometry.groundY && geometry.groundY < geometry.halfHeight );
+            }
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testTooSmall() {
+        new PFScanGeometry( 3, 10 );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testTooLarge() {
+        new PFScanGeometry( 8, PFScanMask.MAX_SIZE + 1 );
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.inari.firefly.platformer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.inari.commons.geom.BitMask;
+
+public class PFScanMaskTest {
+
+    @Test
+    public void testScansMatchProbeLoops() {
+        final Random random = new Random( 11 );
+        final PFScanMask scanMask = new PFScanMask();
+        for ( int run = 0; run < 2000; run++ ) {
+            final int width = 4 + random.nextInt( PFScanMask.MAX_SIZE - 3 );
+            final int height = 6 + random.nextInt( PFScanMask.MAX_SIZE - 5 );
+            final boolean[][] pixels = randomPixels( random, width, height );
+            scanMask.set( bitMask( pixels, width, height ), width, height );
+
+            assertScans( random, scanMask, pixels, width, height );
+        }
+    }
+
+    @Test
+    public void testShiftedScansMatchProbeLoops() {
+        final Random random = new Random( 12 );
+        final PFScanMask scanMask = new PFScanMask();
+        final int[] queries = new int[ 1 ];
+        for ( int run = 0; run < 2000; run++ ) {
+            final int width = 4 + random.nextInt( PFScanMask.MAX_SIZE - 3 );
+            final int height = 6 + random.nextInt( PFScanMask.MAX_SIZE - 5 );
+            // the world is three masks high, the contact mask is the middle one
+            final boolean[][] world = randomPixels( random, width, 3 * height );
+            final boolean[][] pixels = new boolean[ height ][];
+            System.arraycopy( world, height, pixels, 0, height );
+            final PFSolidQuery solidQuery = new PFSolidQuery() {
+                @Override
+                public boolean hasSolid( int x, int y, int areaWidth, int areaHeight ) {
+                    queries[ 0 ]++;
+                    for ( int row = y; row < y + areaHeight; row++ ) {
+                        if ( anyInRow( world, row, x, x + areaWidth - 1 ) ) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            };
+            scanMask.set( bitMask( pixels, width, height ), width, height );
+
+            // read some pixels before the shift so shifted rows are partly read already
+            scanMask.countSetRowsFromTop( 0, random.nextInt( width ) );
+            final int rows = random.nextInt( 2 * height + 1 ) - height;
+            queries[ 0 ] = 0;
+            scanMask.shiftRows( rows, solidQuery, 0, height - rows );
+
+            final boolean[][] shifted = new boolean[ height ][];
+            System.arraycopy( world, height - rows, shifted, 0, height );
+            assertScans( random, scanMask, shifted, width, height );
+            if ( rows == 0 ) {
+                assertEquals( 0, queries[ 0 ] );
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyMask() {
+        final PFScanMask scanMask = new PFScanMask();
+        scanMask.set( new BitMask( 0, 0, 8, 10 ), 8, 10 );
+
+        assertEquals( 0, scanMask.countSetRowsFromTop( 0, 7 ) );
+        assertEquals( 0, scanMask.countSetColumnsFromRight( 7, 0, 9 ) );
+        assertEquals( -1, scanMask.firstSetRow( 0, 7, 0 ) );
+    }
+
+    private static void assertScans( Random random, PFScanMask scanMask, boolean[][] pixels, int width, int height ) {
+        for ( int query = 0; query < 8; query++ ) {
+            final int x1 = random.nextInt( width );
+            final int x2 = x1 + random.nextInt( width - x1 );
+            final int y1 = random.nextInt( height );
+            final int y2 = y1 + random.nextInt( height - y1 );
+            final int y = random.nextInt( height );
+
+            assertEquals( expectedRowsFromTop( pixels, x1, x2, height ), scanMask.countSetRowsFromTop( x1, x2 ) );
+            assertEquals( expectedRowsFromBottom( pixels, x1, x2, height ), scanMask.countSetRowsFromBottom( x1, x2 ) );
+            assertEquals( expectedColumnsFromLeft( pixels, y1, y2, width ), scanMask.countSetColumnsFromLeft( y1, y2 ) );
+            assertEquals( expectedColumnsFromRight( pixels, x2, y1, y2 ), scanMask.countSetColumnsFromRight( x2, y1, y2 ) );
+            assertEquals( expectedFirstSetRow( pixels, x1, x2, y, height ), scanMask.firstSetRow( x1, x2, y ) );
+            assertEquals( pixels[ y ][ x1 ], scanMask.getBit( x1, y ) );
+        }
+    }
+
+    private static boolean[][] randomPixels( Random random, int width, int height ) {
+        // blocks of solid pixels at the borders like ground, walls and ceilings, and some noise
+        final boolean[][] pixels = new boolean[ height ][ width ];
+        final int ground = height - random.nextInt( height / 2 + 1 );
+        final int wall = width - random.nextInt( width / 2 + 1 );
+        final int ceiling = random.nextInt( 3 );
+        for ( int y = 0; y < height; y++ ) {
+            for ( int x = 0; x < width; x++ ) {
+                pixels[ y ][ x ] = y >= ground || x >= wall || y < ceiling || random.nextInt( 40 ) == 0;
+            }
+        }
+        return pixels;
+    }
+
+    private static BitMask bitMask( boolean[][] pixels, int width, int height ) {
+        final BitMask mask = new BitMask( 0, 0, width, height );
+        for ( int y = 0; y < height; y++ ) {
+            for ( int x = 0; x < width; x++ ) {
+                if ( pixels[ y ][ x ] ) {
+                    mask.setBit( x, y );
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static boolean anyInRow( boolean[][] pixels, int y, int x1, int x2 ) {
+        for ( int x = x1; x <= x2; x++ ) {
+            if ( pixels[ y ][ x ] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyInColumn( boolean[][] pixels, int x, int y1, int y2 ) {
+        for ( int y = y1; y <= y2; y++ ) {
+            if ( pixels[ y ][ x ] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int expectedRowsFromTop( boolean[][] pixels, int x1, int x2, int height ) {
+        int y = 0;
+        while ( y < height && anyInRow( pixels, y, x1, x2 ) ) {
+            y++;
+        }
+        return y;
+    }
+
+    private static int expectedRowsFromBottom( boolean[][] pixels, int x1, int x2, int height ) {
+        int count = 0;
+        while ( count < height && anyInRow( pixels, height - 1 - count, x1, x2 ) ) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int expectedColumnsFromLeft( boolean[][] pixels, int y1, int y2, int width ) {
+        int x = 0;
+        while ( x < width && anyInColumn( pixels, x, y1, y2 ) ) {
+            x++;
+        }
+        return x;
+    }
+
+    private static int expectedColumnsFromRight( boolean[][] pixels, int x, int y1, int y2 ) {
+        int count = 0;
+        while ( x - count >= 0 && anyInColumn( pixels, x - count, y1, y2 ) ) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int expectedFirstSetRow( boolean[][] pixels, int x1, int x2, int y, int height ) {
+        for ( int row = y; row < height; row++ ) {
+            if ( anyInRow( pixels, row, x1, x2 ) ) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+}
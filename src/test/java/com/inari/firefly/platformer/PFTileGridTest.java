@@ -0,0 +1,62 @@
+package com.inari.firefly.platformer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PFTileGridTest {
+
+    @Test
+    public void testGetFlagsWithNegativeWorldCoordinates() {
+        // 4x3 cells of 16x16 pixels, from -32/-16 to 32/32
+        final PFTileGrid tileGrid = new PFTileGrid( -32, -16, 4, 3, 16, 16 );
+        tileGrid.setSolid( 0, 0, true );
+        tileGrid.setMaterial( 1, 0, PFContact.SPIKE, true );
+
+        // the first cell covers -32..-17 / -16..-1
+        assertEquals( PFTileGrid.SOLID, tileGrid.getFlags( -32, -16, 1, 1 ) );
+        assertEquals( PFTileGrid.SOLID, tileGrid.getFlags( -17, -1, 1, 1 ) );
+        assertEquals( PFTileGrid.materialFlag( PFContact.SPIKE ), tileGrid.getFlags( -16, -1, 1, 1 ) );
+        assertEquals( PFTileGrid.SOLID | PFTileGrid.materialFlag( PFContact.SPIKE ), tileGrid.getFlags( -20, -8, 8, 4 ) );
+        assertEquals( 0, tileGrid.getFlags( -32, 0, 64, 32 ) );
+
+        // areas left of and above the grid do not reach into the first cell
+        assertEquals( 0, tileGrid.getFlags( -40, -8, 8, 4 ) );
+        assertEquals( 0, tileGrid.getFlags( -30, -20, 4, 4 ) );
+        assertEquals( PFTileGrid.SOLID, tileGrid.getFlags( -40, -8, 9, 4 ) );
+        assertEquals( PFTileGrid.SOLID, tileGrid.getFlags( -30, -20, 4, 5 ) );
+
+        assertTrue( tileGrid.hasSolid( -33, -17, 2, 2 ) );
+        assertFalse( tileGrid.hasSolid( -34, -18, 2, 2 ) );
+        assertTrue( tileGrid.hasMaterialUnder( -16, -20, 4, 4, PFContact.SPIKE ) );
+        assertFalse( tileGrid.hasMaterialUnder( -16, -21, 4, 4, PFContact.SPIKE ) );
+    }
+
+    @Test
+    public void testFirstCellWithNegativeWorldCoordinates() {
+        final PFTileGrid tileGrid = new PFTileGrid( -32, -16, 4, 3, 16, 16 );
+        final int ladder = PFTileGrid.materialFlag( PFContact.LADDER );
+        tileGrid.setMaterial( 2, 1, PFContact.LADDER, true );
+        tileGrid.setMaterial( 1, 2, PFContact.LADDER, true );
+        tileGrid.setSolid( 0, 1, true );
+
+        // rows from the top, the ladder of the second row comes first
+        final int cell = tileGrid.firstCell( -40, -40, 80, 80, ladder );
+        assertEquals( 6, cell );
+        assertEquals( 0, tileGrid.cellWorldX( cell ) );
+        assertEquals( 0, tileGrid.cellWorldY( cell ) );
+
+        final int lower = tileGrid.firstCell( -20, 10, 8, 8, ladder );
+        assertEquals( 9, lower );
+        assertEquals( -16, tileGrid.cellWorldX( lower ) );
+        assertEquals( 16, tileGrid.cellWorldY( lower ) );
+
+        assertEquals( 4, tileGrid.firstCell( -40, -1, 9, 2, PFTileGrid.SOLID ) );
+        assertEquals( -1, tileGrid.firstCell( -40, -1, 9, 2, ladder ) );
+        assertEquals( -1, tileGrid.firstCell( -48, -1, 16, 2, PFTileGrid.SOLID ) );
+        assertEquals( -1, tileGrid.firstCell( -1, -16, 1, 16, ladder ) );
+    }
+
+}